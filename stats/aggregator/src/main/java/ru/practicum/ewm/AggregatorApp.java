@@ -4,14 +4,30 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.ewm.pipeline.PipelinedAggregationStarter;
+import ru.practicum.ewm.recompute.SimilarityRecomputeJob;
 import ru.practicum.ewm.service.AggregationStarter;
+import ru.practicum.ewm.sharding.ShardedAggregationStarter;
+import ru.practicum.ewm.streams.StreamsAggregation;
 
 @SpringBootApplication
 @ConfigurationPropertiesScan
 public class AggregatorApp {
     public static void main(String[] args) {
         ConfigurableApplicationContext context = SpringApplication.run(AggregatorApp.class, args);
-        AggregationStarter aggregator = context.getBean(AggregationStarter.class);
-        aggregator.start();
+        String engine = context.getEnvironment().getProperty("aggregator.engine", "loop");
+        if ("streams".equals(engine)) {
+            context.getBean(StreamsAggregation.class).start();
+        } else if ("pipeline".equals(engine)) {
+            context.getBean(PipelinedAggregationStarter.class).start();
+        } else if ("sharded".equals(engine)) {
+            context.getBean(ShardedAggregationStarter.class).start();
+        } else if ("recompute".equals(engine)) {
+            context.getBean(SimilarityRecomputeJob.class).start();
+            System.exit(SpringApplication.exit(context));
+        } else {
+            AggregationStarter aggregator = context.getBean(AggregationStarter.class);
+            aggregator.start();
+        }
     }
 }
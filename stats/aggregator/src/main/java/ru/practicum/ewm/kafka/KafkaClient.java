@@ -10,5 +10,13 @@ public interface KafkaClient {
 
     Consumer<String, SpecificRecordBase> getConsumer();
 
+    /**
+     * Создаёт отдельный консьюмер с теми же настройками, но другим десериализатором значений.
+     * Закрывать его должен вызывающий.
+     */
+    Consumer<String, SpecificRecordBase> createConsumer(String valueDeserializer);
+
+    boolean isTransactional();
+
     void stop();
 }
@@ -10,6 +10,8 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.ewm.serializer.BaseAvroDeserializer;
+import ru.practicum.ewm.serializer.TopicFormat;
 
 import java.util.Properties;
 
@@ -29,8 +31,14 @@ public class KafkaClientConfig {
             private String keyDeserializer;
             @Value("${kafka.consumer.value-deserializer}")
             private String valueDeserializer;
+            @Value("${topics.formats.user-actions:SINGLE}")
+            private TopicFormat actionsFormat;
             @Value("${kafka.consumer.group-id}")
             private String idGroup;
+            @Value("${kafka.consumer.avro-reuse:NONE}")
+            private String avroReuse;
+            @Value("${kafka.producer.transactional-id:}")
+            private String transactionalId;
 
             private Producer<String, SpecificRecordBase> producer;
             private Consumer<String, SpecificRecordBase> consumer;
@@ -50,9 +58,18 @@ public class KafkaClientConfig {
                 config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
                 config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
                 config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
+                if (isTransactional()) {
+                    config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+                    config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+                }
                 producer = new KafkaProducer<>(config);
             }
 
+            @Override
+            public boolean isTransactional() {
+                return transactionalId != null && !transactionalId.isBlank();
+            }
+
             @Override
             public void stop() {
                 if (producer != null) {
@@ -70,13 +87,29 @@ public class KafkaClientConfig {
                 return consumer;
             }
 
+            @Override
+            public Consumer<String, SpecificRecordBase> createConsumer(String valueDeserializer) {
+                return buildConsumer(valueDeserializer);
+            }
+
             private void initConsumer() {
+                consumer = buildConsumer(actionsFormat == TopicFormat.SINGLE
+                        ? valueDeserializer
+                        : actionsFormat.userActionDeserializer());
+            }
+
+            private Consumer<String, SpecificRecordBase> buildConsumer(String valueDeserializer) {
                 Properties config = new Properties();
                 config.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
                 config.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
                 config.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer);
                 config.setProperty(ConsumerConfig.GROUP_ID_CONFIG, idGroup);
-                consumer = new KafkaConsumer<>(config);
+                config.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+                config.setProperty(BaseAvroDeserializer.REUSE_CONFIG, avroReuse);
+                if (isTransactional()) {
+                    config.setProperty(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+                }
+                return new KafkaConsumer<>(config);
             }
         };
     }
@@ -0,0 +1,34 @@
+package ru.practicum.ewm.pipeline;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.util.Map;
+
+/**
+ * Слот буфера между стадиями чтения и расчёта.
+ * {@link Kind#BATCH_END} закрывает пачку одного poll и несёт смещения, следующие за её записями.
+ */
+final class ActionSlot {
+    enum Kind { ACTION, BATCH_END, STOP }
+
+    Kind kind;
+    final UserActionAvro action = new UserActionAvro();
+    Map<TopicPartition, OffsetAndMetadata> offsets;
+
+    /**
+     * Копирует действие в собственную запись слота: запись консьюмера может быть переиспользована
+     * десериализатором на следующем poll, когда слот ещё ждёт стадию расчёта.
+     */
+    void copyAction(UserActionAvro source) {
+        action.setUserId(source.getUserId());
+        action.setEventId(source.getEventId());
+        action.setActionType(source.getActionType());
+        action.setTimestamp(source.getTimestamp());
+    }
+
+    void clear() {
+        offsets = null;
+    }
+}
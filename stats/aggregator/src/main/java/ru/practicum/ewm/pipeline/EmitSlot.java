@@ -0,0 +1,28 @@
+package ru.practicum.ewm.pipeline;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+/**
+ * Слот буфера между стадиями расчёта и отправки. Сходство хранится примитивами,
+ * запись Avro собирается уже стадией отправки.
+ * {@link Kind#OFFSETS} следует за всеми сходствами, рассчитанными по записям до этих смещений.
+ * {@link Kind#DELIVERY} делает то же самое, но стадия отправки сначала дожидается подтверждения брокером
+ * всех отправленных сходств: после этого по его смещениям можно сохранять снапшот.
+ */
+final class EmitSlot {
+    enum Kind { SIMILARITY, OFFSETS, DELIVERY, STOP }
+
+    Kind kind;
+    long eventA;
+    long eventB;
+    double score;
+    long timestamp;
+    Map<TopicPartition, OffsetAndMetadata> offsets;
+
+    void clear() {
+        offsets = null;
+    }
+}
@@ -0,0 +1,395 @@
+package ru.practicum.ewm.pipeline;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.kafka.KafkaClient;
+import ru.practicum.ewm.lane.LaneScheduler;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.service.SimilarityCoalescer;
+import ru.practicum.ewm.service.SimilarityPublisher;
+import ru.practicum.ewm.service.SimilarityService;
+import ru.practicum.ewm.service.SimilaritySink;
+import ru.practicum.ewm.service.TopKNeighbourIndex;
+import ru.practicum.ewm.snapshot.SnapshotManager;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Агрегатор в виде конвейера из трёх потоков: чтение и десериализация (поток poll), расчёт сходства
+ * и отправка в Kafka. Стадии связаны ограниченными кольцевыми буферами, поэтому медленная отправка
+ * не останавливает расчёт, пока в буфере есть место.
+ * Смещения фиксирует поток poll, и только после того, как стадия отправки передала продюсеру
+ * все сходства, рассчитанные по записям до этих смещений.
+ * Снапшот сохраняет стадия расчёта, но только по смещениям, для которых стадия отправки дождалась
+ * подтверждения брокером всех предшествующих сходств: иначе после сбоя снапшот опередил бы топик
+ * сходств, и потерянные отправки уже не были бы пересчитаны.
+ */
+@Slf4j
+@Component
+public class PipelinedAggregationStarter {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final KafkaClient kafkaClient;
+    private final SimilarityService similarityService;
+    private final SnapshotManager snapshotManager;
+    private final SimilarityCoalescer coalescer;
+    private final TopKNeighbourIndex topKIndex;
+    private final SimilarityPublisher publisher;
+    private final RingBuffer<ActionSlot> actions;
+    private final RingBuffer<EmitSlot> similarities;
+    private final AtomicLong actionsStalls = new AtomicLong();
+    private final AtomicLong similaritiesStalls = new AtomicLong();
+    private final AtomicReference<Map<TopicPartition, OffsetAndMetadata>> emittedOffsets = new AtomicReference<>();
+    private final AtomicReference<Map<TopicPartition, OffsetAndMetadata>> deliveredOffsets = new AtomicReference<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Map<TopicPartition, OffsetAndMetadata> processedOffsets = new HashMap<>();
+    private final SimilaritySink router = this::route;
+    private final SimilaritySink emitter = this::emit;
+    private final java.util.function.Consumer<UserActionAvro> enqueuer = this::enqueue;
+    @Value("${topics.user-actions}")
+    private String userActionsTopic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.lanes.priority-weight:4}")
+    private int priorityWeight;
+
+    public PipelinedAggregationStarter(KafkaClient kafkaClient,
+                                       SimilarityService similarityService,
+                                       SnapshotManager snapshotManager,
+                                       SimilarityCoalescer coalescer,
+                                       TopKNeighbourIndex topKIndex,
+                                       SimilarityPublisher publisher,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${aggregator.pipeline.actions-buffer:4096}") int actionsBuffer,
+                                       @Value("${aggregator.pipeline.similarities-buffer:16384}")
+                                       int similaritiesBuffer) {
+        this.kafkaClient = kafkaClient;
+        this.similarityService = similarityService;
+        this.snapshotManager = snapshotManager;
+        this.coalescer = coalescer;
+        this.topKIndex = topKIndex;
+        this.publisher = publisher;
+        actions = new RingBuffer<>(actionsBuffer, ActionSlot::new);
+        similarities = new RingBuffer<>(similaritiesBuffer, EmitSlot::new);
+        registerMetrics(meterRegistry, "compute", actions, actionsStalls);
+        registerMetrics(meterRegistry, "emit", similarities, similaritiesStalls);
+    }
+
+    public void start() {
+        log.info("Старт конвейерного агрегатора");
+        Consumer<String, SpecificRecordBase> consumer = kafkaClient.getConsumer();
+        Producer<String, SpecificRecordBase> producer = kafkaClient.getProducer();
+        if (kafkaClient.isTransactional()) {
+            throw new IllegalStateException("Транзакционный режим не поддерживается конвейерным агрегатором");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
+
+        Map<TopicPartition, Long> snapshotOffsets = new HashMap<>(snapshotManager.restore());
+        Thread computeThread = new Thread(this::runCompute, "aggregation-compute");
+        Thread emitThread = new Thread(() -> runEmit(producer), "aggregation-emit");
+        computeThread.start();
+        emitThread.start();
+
+        LaneScheduler lanes = new LaneScheduler(userActionsTopic, priorityTopic, priorityWeight);
+        try {
+            log.info("Подписка на топики: {}", lanes.topics());
+            consumer.subscribe(lanes.topics(), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    commitEmitted(consumer, true);
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    for (TopicPartition partition : partitions) {
+                        Long offset = snapshotOffsets.remove(partition);
+                        if (offset != null) {
+                            log.info("Перемотка {} на смещение снапшота {}", partition, offset);
+                            consumer.seek(partition, offset);
+                        }
+                    }
+                }
+            });
+            while (true) {
+                ConsumerRecords<String, SpecificRecordBase> records =
+                        consumer.poll(lanes.pollTimeout(Duration.ofSeconds(5)));
+                checkFailure();
+                lanes.afterPoll(consumer, records);
+                for (ConsumerRecord<String, SpecificRecordBase> record : lanes.ordered(records)) {
+                    TopicFormat.forEachAction(record.value(), enqueuer);
+                }
+                ActionSlot batchEnd = claim(actions, actionsStalls);
+                batchEnd.kind = ActionSlot.Kind.BATCH_END;
+                batchEnd.offsets = lastOffsets(records);
+                actions.publish();
+                commitEmitted(consumer, false);
+            }
+        } catch (WakeupException ignored) {
+            log.info("Получено исключение WakeupException");
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            try {
+                if (failure.get() == null) {
+                    ActionSlot stop = claim(actions, actionsStalls);
+                    stop.kind = ActionSlot.Kind.STOP;
+                    actions.publish();
+                }
+                join(computeThread);
+                join(emitThread);
+                if (failure.get() == null) {
+                    commitEmitted(consumer, true);
+                }
+            } finally {
+                log.info("Закрываем консьюмер");
+                consumer.close();
+                log.info("Закрываем продюсер");
+                producer.close();
+            }
+        }
+        checkFailure();
+    }
+
+    private void runCompute() {
+        try {
+            while (true) {
+                ActionSlot slot = take(actions);
+                ActionSlot.Kind kind = slot.kind;
+                if (kind == ActionSlot.Kind.ACTION) {
+                    log.debug("Получено сообщение: {}", slot.action);
+                    similarityService.updateSimilarity(slot.action, router);
+                } else if (kind == ActionSlot.Kind.BATCH_END) {
+                    processedOffsets.putAll(slot.offsets);
+                    if (coalescer.flushIfDue(emitter)) {
+                        if (snapshotManager.isDue()) {
+                            awaitDelivery(emitOffsets(EmitSlot.Kind.DELIVERY));
+                            snapshotManager.saveIfDue(processedOffsets);
+                        } else {
+                            emitOffsets(EmitSlot.Kind.OFFSETS);
+                        }
+                        evictInactiveEvents();
+                    }
+                } else {
+                    coalescer.flush(emitter);
+                    awaitDelivery(emitOffsets(EmitSlot.Kind.DELIVERY));
+                    snapshotManager.save(processedOffsets);
+                    EmitSlot stop = claim(similarities, similaritiesStalls);
+                    stop.kind = EmitSlot.Kind.STOP;
+                    similarities.publish();
+                }
+                slot.clear();
+                actions.release();
+                if (kind == ActionSlot.Kind.STOP) {
+                    log.info("Стадия расчёта остановлена. Состояние агрегатора: {}",
+                            similarityService.getStateFootprint());
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            fail("Ошибка стадии расчёта", e);
+        }
+    }
+
+    private void runEmit(Producer<String, SpecificRecordBase> producer) {
+        try {
+            while (true) {
+                EmitSlot slot = take(similarities);
+                EmitSlot.Kind kind = slot.kind;
+                if (kind == EmitSlot.Kind.SIMILARITY) {
+                    publisher.publish(producer, slot.eventA, slot.eventB, slot.score, slot.timestamp);
+                } else if (kind == EmitSlot.Kind.OFFSETS) {
+                    publisher.flush(producer);
+                    emittedOffsets.set(slot.offsets);
+                } else if (kind == EmitSlot.Kind.DELIVERY) {
+                    publisher.awaitDelivery(producer);
+                    emittedOffsets.set(slot.offsets);
+                    deliveredOffsets.set(slot.offsets);
+                } else {
+                    publisher.flush(producer);
+                    producer.flush();
+                }
+                slot.clear();
+                similarities.release();
+                if (kind == EmitSlot.Kind.STOP) {
+                    log.info("Стадия отправки остановлена");
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            fail("Ошибка стадии отправки", e);
+        }
+    }
+
+    private void enqueue(UserActionAvro action) {
+        ActionSlot slot = claim(actions, actionsStalls);
+        slot.kind = ActionSlot.Kind.ACTION;
+        slot.copyAction(action);
+        actions.publish();
+    }
+
+    private void route(long eventA, long eventB, double score, long timestamp) {
+        if (topKIndex.isEnabled() && !topKIndex.offer(eventA, eventB, score)) {
+            return;
+        }
+        if (coalescer.isEnabled()) {
+            coalescer.add(eventA, eventB, score, timestamp);
+        } else {
+            emit(eventA, eventB, score, timestamp);
+        }
+    }
+
+    private void emit(long eventA, long eventB, double score, long timestamp) {
+        EmitSlot slot = claim(similarities, similaritiesStalls);
+        slot.kind = EmitSlot.Kind.SIMILARITY;
+        slot.eventA = eventA;
+        slot.eventB = eventB;
+        slot.score = score;
+        slot.timestamp = timestamp;
+        similarities.publish();
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> emitOffsets(EmitSlot.Kind kind) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = Map.copyOf(processedOffsets);
+        EmitSlot slot = claim(similarities, similaritiesStalls);
+        slot.kind = kind;
+        slot.offsets = offsets;
+        similarities.publish();
+        return offsets;
+    }
+
+    /**
+     * Ждёт, пока стадия отправки подтвердит доставку сходств до указанных смещений. Состояние за это время
+     * не меняется: его изменяет только стадия расчёта. Ошибка отправки прерывает ожидание через
+     * {@link #checkFailure()}, и снапшот не сохраняется.
+     */
+    private void awaitDelivery(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (int attempt = 0; deliveredOffsets.get() != offsets; attempt++) {
+            idle(attempt);
+        }
+    }
+
+    private void evictInactiveEvents() {
+        long[] evicted = similarityService.maintainState();
+        if (evicted.length > 0 && topKIndex.isEnabled()) {
+            topKIndex.evict(eventId -> Arrays.binarySearch(evicted, eventId) >= 0);
+        }
+    }
+
+    private void commitEmitted(Consumer<String, SpecificRecordBase> consumer, boolean sync) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = emittedOffsets.getAndSet(null);
+        if (offsets == null || offsets.isEmpty()) {
+            return;
+        }
+        if (sync) {
+            consumer.commitSync(offsets);
+        } else {
+            consumer.commitAsync(offsets, null);
+        }
+    }
+
+    private static Map<TopicPartition, OffsetAndMetadata> lastOffsets(
+            ConsumerRecords<String, SpecificRecordBase> records) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, SpecificRecordBase>> partitionRecords = records.records(partition);
+            long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+            offsets.put(partition, new OffsetAndMetadata(lastOffset + 1));
+        }
+        return offsets;
+    }
+
+    private <T> T claim(RingBuffer<T> buffer, AtomicLong stalls) {
+        T slot = buffer.tryClaim();
+        if (slot != null) {
+            return slot;
+        }
+        stalls.incrementAndGet();
+        for (int attempt = 0; ; attempt++) {
+            idle(attempt);
+            slot = buffer.tryClaim();
+            if (slot != null) {
+                return slot;
+            }
+        }
+    }
+
+    private <T> T take(RingBuffer<T> buffer) {
+        for (int attempt = 0; ; attempt++) {
+            T slot = buffer.tryTake();
+            if (slot != null) {
+                return slot;
+            }
+            idle(attempt);
+        }
+    }
+
+    private void idle(int attempt) {
+        checkFailure();
+        if (attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private void fail(String message, Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            log.error(message, e);
+        }
+    }
+
+    private void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new IllegalStateException("Конвейер агрегатора остановлен из-за ошибки", e);
+        }
+    }
+
+    private static void registerMetrics(MeterRegistry meterRegistry, String stage, RingBuffer<?> buffer,
+                                        AtomicLong stalls) {
+        Gauge.builder("aggregator.pipeline.occupancy", buffer, b -> (double) b.size() / b.capacity())
+                .description("Заполненность буфера перед стадией конвейера")
+                .tag("stage", stage)
+                .register(meterRegistry);
+        FunctionCounter.builder("aggregator.pipeline.stalls", stalls, AtomicLong::get)
+                .description("Сколько раз предыдущая стадия ждала свободного места в буфере")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.practicum.ewm.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченная очередь одного писателя и одного читателя поверх заранее созданных слотов.
+ * Писатель заполняет слот из {@link #tryClaim()} и публикует его через {@link #publish()},
+ * читатель получает слот из {@link #tryTake()} и возвращает его через {@link #release()}.
+ */
+final class RingBuffer<T> {
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long cachedHead;
+    private long cachedTail;
+
+    RingBuffer(int capacity, Supplier<T> slotFactory) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.get();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Возвращает свободный слот для записи или {@code null}, если буфер заполнен.
+     */
+    T tryClaim() {
+        long position = tail.get();
+        if (position - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (position - cachedHead >= slots.length) {
+                return null;
+            }
+        }
+        return slot(position);
+    }
+
+    void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Возвращает следующий опубликованный слот или {@code null}, если буфер пуст.
+     */
+    T tryTake() {
+        long position = head.get();
+        if (position >= cachedTail) {
+            cachedTail = tail.get();
+            if (position >= cachedTail) {
+                return null;
+            }
+        }
+        return slot(position);
+    }
+
+    void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T slot(long position) {
+        return (T) slots[(int) position & mask];
+    }
+}
@@ -0,0 +1,339 @@
+package ru.practicum.ewm.recompute;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.kafka.KafkaClient;
+import ru.practicum.ewm.lane.LaneScheduler;
+import ru.practicum.ewm.service.ActionWeights;
+import ru.practicum.ewm.service.SimilarityPublisher;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.snapshot.SnapshotManager;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.LongPairDoubleHashMap;
+import ru.practicum.ewm.storage.SimilarityStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Пересчитывает сходства всех пар по полной истории действий, без потокового пересчёта на каждое действие.
+ * Веса и суммы весов событий собираются за один проход по истории, суммы минимальных весов пар
+ * считаются параллельно в fork/join по диапазонам пользователей. Ограничение fan-out не применяется.
+ * <p>
+ * При чтении из топика состояние вместе с конечными смещениями сохраняется в снапшот,
+ * и потоковый агрегатор продолжает с того места, где закончился пересчёт.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SimilarityRecomputeJob {
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final KafkaClient kafkaClient;
+    private final SimilarityStore store;
+    private final WeightDecay decay;
+    private final SnapshotManager snapshotManager;
+    private final SimilarityPublisher publisher;
+
+    @Value("${topics.user-actions}")
+    private String userActionsTopic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.events-similarity}")
+    private String eventsSimilarityTopic;
+    @Value("${aggregator.recompute.source:TOPIC}")
+    private Target source;
+    @Value("${aggregator.recompute.input-path:user-actions.csv}")
+    private String inputPath;
+    @Value("${aggregator.recompute.output:TOPIC}")
+    private Target output;
+    @Value("${aggregator.recompute.output-path:events-similarity.csv}")
+    private String outputPath;
+    @Value("${aggregator.recompute.parallelism:0}")
+    private int parallelism;
+    @Value("${aggregator.recompute.users-per-task:256}")
+    private int usersPerTask;
+
+    private final LongPairDoubleHashMap actionTimestamps = new LongPairDoubleHashMap();
+    private long[] users = new long[1024];
+    private int usersCount;
+    private long actionsCount;
+
+    public void start() {
+        long startedAt = System.currentTimeMillis();
+        Map<TopicPartition, OffsetAndMetadata> offsets = source == Target.TOPIC ? readTopic() : readFile();
+        log.info("Загружено {} действий {} пользователей за {} мс: {}", actionsCount, usersCount,
+                System.currentTimeMillis() - startedAt, store.footprint());
+
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        long computeStartedAt = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        PairSums pairs;
+        try {
+            pairs = pool.invoke(new MinSumTask(0, usersCount));
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Суммы минимальных весов {} пар рассчитаны в {} потоков за {} мс", pairs.minSums.size(), threads,
+                System.currentTimeMillis() - computeStartedAt);
+
+        long writeStartedAt = System.currentTimeMillis();
+        if (output == Target.TOPIC) {
+            writeTopic(pairs);
+        } else {
+            writeFile(pairs);
+        }
+        log.info("Сходства записаны за {} мс", System.currentTimeMillis() - writeStartedAt);
+
+        if (!offsets.isEmpty()) {
+            pairs.minSums.forEach(store::addMinSum);
+            snapshotManager.save(offsets);
+        }
+        log.info("Пересчёт завершён за {} мс", System.currentTimeMillis() - startedAt);
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> readTopic() {
+        List<String> topics = new LaneScheduler(userActionsTopic, priorityTopic, 0).topics();
+        log.info("Чтение истории действий из топиков {}", topics);
+        try (Consumer<String, SpecificRecordBase> consumer = kafkaClient.getConsumer()) {
+            List<TopicPartition> partitions = topics.stream()
+                    .flatMap(topic -> consumer.partitionsFor(topic).stream())
+                    .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+                    .toList();
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+            Map<TopicPartition, Long> remaining = new HashMap<>(endOffsets);
+            remaining.entrySet().removeIf(entry -> consumer.position(entry.getKey()) >= entry.getValue());
+            while (!remaining.isEmpty()) {
+                for (ConsumerRecord<String, SpecificRecordBase> record : consumer.poll(POLL_TIMEOUT)) {
+                    Long end = endOffsets.get(new TopicPartition(record.topic(), record.partition()));
+                    if (record.offset() < end) {
+                        TopicFormat.forEachAction(record.value(), action -> addAction(action.getUserId(),
+                                action.getEventId(), action.getActionType(), action.getTimestamp().toEpochMilli()));
+                    }
+                }
+                remaining.entrySet().removeIf(entry -> consumer.position(entry.getKey()) >= entry.getValue());
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            endOffsets.forEach((partition, offset) -> offsets.put(partition, new OffsetAndMetadata(offset)));
+            return offsets;
+        }
+    }
+
+    /**
+     * Читает CSV вида {@code userId,eventId,actionType,timestamp}; время — миллисекунды эпохи или ISO-8601.
+     * Строка заголовка пропускается.
+     */
+    private Map<TopicPartition, OffsetAndMetadata> readFile() {
+        log.info("Чтение истории действий из файла {}", inputPath);
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(inputPath), StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && !Character.isDigit(line.charAt(0)))) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 4) {
+                    throw new IllegalStateException("Некорректная строка " + lineNumber + " в " + inputPath);
+                }
+                String timestamp = fields[3].trim();
+                addAction(Long.parseLong(fields[0].trim()),
+                        Long.parseLong(fields[1].trim()),
+                        ActionTypeAvro.valueOf(fields[2].trim()),
+                        timestamp.indexOf('T') >= 0 ? Instant.parse(timestamp).toEpochMilli()
+                                : Long.parseLong(timestamp));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать " + inputPath, e);
+        }
+        return Map.of();
+    }
+
+    private void addAction(long userId, long eventId, ActionTypeAvro actionType, long timestamp) {
+        actionsCount++;
+        store.touchEvent(eventId, timestamp);
+        double oldWeight = store.getWeight(eventId, userId);
+        double newWeight = decay.scaled(ActionWeights.of(actionType), timestamp);
+        if (oldWeight >= newWeight) {
+            return;
+        }
+        if (store.countUserEvents(userId) == 0) {
+            if (usersCount == users.length) {
+                users = Arrays.copyOf(users, usersCount * 2);
+            }
+            users[usersCount++] = userId;
+        }
+        store.putWeight(eventId, userId, newWeight);
+        store.addEventSum(eventId, newWeight - oldWeight);
+        actionTimestamps.put(userId, eventId, timestamp);
+    }
+
+    private void writeTopic(PairSums pairs) {
+        log.info("Запись сходств в топик {}", eventsSimilarityTopic);
+        Producer<String, SpecificRecordBase> producer = kafkaClient.getProducer();
+        try {
+            pairs.minSums.forEach((eventA, eventB, minSum) -> publisher.publish(producer, eventA, eventB,
+                    score(eventA, eventB, minSum), pairs.timestamp(eventA, eventB)));
+            publisher.flush(producer);
+            producer.flush();
+        } finally {
+            producer.close();
+        }
+    }
+
+    private void writeFile(PairSums pairs) {
+        log.info("Запись сходств в файл {}", outputPath);
+        try (BufferedWriter writer = Files.newBufferedWriter(Path.of(outputPath), StandardCharsets.UTF_8)) {
+            writer.write("eventA,eventB,score,timestamp");
+            writer.newLine();
+            pairs.minSums.forEach((eventA, eventB, minSum) -> {
+                try {
+                    writer.write(eventA + "," + eventB + "," + score(eventA, eventB, minSum) + ","
+                            + Instant.ofEpochMilli(pairs.timestamp(eventA, eventB)));
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать " + outputPath, e);
+        }
+    }
+
+    private double score(long eventA, long eventB, double minSum) {
+        if (minSum == 0) return 0;
+        return minSum / (Math.sqrt(store.getEventSum(eventA)) * Math.sqrt(store.getEventSum(eventB)));
+    }
+
+    public enum Target {
+        TOPIC,
+        FILE
+    }
+
+    /**
+     * Суммы минимальных весов и время последнего влияющего действия для пар событий ({@code eventA < eventB}).
+     */
+    private static final class PairSums {
+        private final LongPairDoubleHashMap minSums = new LongPairDoubleHashMap();
+        private final LongPairDoubleHashMap timestamps = new LongPairDoubleHashMap();
+
+        private void add(long eventA, long eventB, double minWeight, long timestamp) {
+            minSums.addTo(eventA, eventB, minWeight);
+            if (timestamps.get(eventA, eventB, Long.MIN_VALUE) < timestamp) {
+                timestamps.put(eventA, eventB, timestamp);
+            }
+        }
+
+        private long timestamp(long eventA, long eventB) {
+            return (long) timestamps.get(eventA, eventB, 0);
+        }
+
+        private PairSums merge(PairSums other) {
+            if (other.minSums.size() > minSums.size()) {
+                return other.merge(this);
+            }
+            other.minSums.forEach((eventA, eventB, minSum) ->
+                    add(eventA, eventB, minSum, other.timestamp(eventA, eventB)));
+            return this;
+        }
+    }
+
+    /**
+     * Считает суммы минимальных весов по пользователям {@code users[from, to)}; хранилище на этом этапе
+     * только читается, поэтому задачи не синхронизируются.
+     */
+    private final class MinSumTask extends RecursiveTask<PairSums> {
+        private final int from;
+        private final int to;
+
+        private MinSumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PairSums compute() {
+            if (to - from <= Math.max(1, usersPerTask)) {
+                return computeDirectly();
+            }
+            int middle = (from + to) >>> 1;
+            MinSumTask left = new MinSumTask(from, middle);
+            left.fork();
+            PairSums right = new MinSumTask(middle, to).compute();
+            return left.join().merge(right);
+        }
+
+        private PairSums computeDirectly() {
+            PairSums sums = new PairSums();
+            EventsBuffer events = new EventsBuffer();
+            for (int i = from; i < to; i++) {
+                long userId = users[i];
+                events.load(userId);
+                for (int a = 0; a < events.size; a++) {
+                    for (int b = a + 1; b < events.size; b++) {
+                        long eventA = Math.min(events.ids[a], events.ids[b]);
+                        long eventB = Math.max(events.ids[a], events.ids[b]);
+                        sums.add(eventA, eventB, Math.min(events.weights[a], events.weights[b]),
+                                Math.max(events.timestamps[a], events.timestamps[b]));
+                    }
+                }
+            }
+            return sums;
+        }
+    }
+
+    private final class EventsBuffer {
+        private long[] ids = new long[64];
+        private double[] weights = new double[64];
+        private long[] timestamps = new long[64];
+        private int size;
+        private long userId;
+
+        private void load(long userId) {
+            this.userId = userId;
+            size = 0;
+            int count = store.countUserEvents(userId);
+            if (count > ids.length) {
+                ids = new long[count];
+                weights = new double[count];
+                timestamps = new long[count];
+            }
+            store.forEachUserEvent(userId, this::add);
+        }
+
+        private void add(long eventId) {
+            ids[size] = eventId;
+            weights[size] = store.getWeight(eventId, userId);
+            timestamps[size] = (long) actionTimestamps.get(userId, eventId, 0);
+            size++;
+        }
+    }
+}
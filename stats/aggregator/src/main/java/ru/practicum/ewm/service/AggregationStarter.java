@@ -4,20 +4,27 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.Producer;
-import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.ProducerFencedException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import ru.practicum.ewm.kafka.KafkaClient;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.lane.LaneScheduler;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.snapshot.SnapshotManager;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,51 +35,107 @@ import java.util.Map;
 public class AggregationStarter {
     private final KafkaClient kafkaClient;
     private final SimilarityService similarityService;
-    private static final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    private final SnapshotManager snapshotManager;
+    private final ParallelAggregationEngine parallelEngine;
+    private final SimilarityCoalescer coalescer;
+    private final TopKNeighbourIndex topKIndex;
+    private final SimilarityPublisher publisher;
+    private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    private final SimilaritySink router = this::route;
+    private SimilaritySink sender;
+    private LaneScheduler lanes;
     @Value("${topics.user-actions}")
     private String userActionsTopic;
-    @Value("${topics.events-similarity}")
-    private String eventsSimilarityTopic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.lanes.priority-weight:4}")
+    private int priorityWeight;
 
     public void start() {
         log.info("Старт");
+        boolean transactional = kafkaClient.isTransactional();
+        if (transactional && !snapshotManager.isEnabled()) {
+            throw new IllegalStateException("Транзакционный режим требует снапшотов (aggregator.snapshot.enabled): "
+                    + "смещения фиксируются вместе со сходствами, и без снапшота состояние после перезапуска "
+                    + "не восстановить");
+        }
         Consumer<String, SpecificRecordBase> consumer = kafkaClient.getConsumer();
         Producer<String, SpecificRecordBase> producer = kafkaClient.getProducer();
+        sender = (eventA, eventB, score, timestamp) -> publisher.publish(producer, eventA, eventB, score, timestamp);
+        lanes = new LaneScheduler(userActionsTopic, priorityTopic, priorityWeight);
         Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
 
+        Map<TopicPartition, Long> snapshotOffsets = new HashMap<>(snapshotManager.restore());
+        if (transactional) {
+            log.info("Включён транзакционный режим");
+            producer.initTransactions();
+        }
+
+        boolean uncommitted = false;
+        boolean aborted = false;
         try {
-            log.info("Подписка на топик: {}", userActionsTopic);
-            consumer.subscribe(List.of(userActionsTopic));
-            while (true) {
-                ConsumerRecords<String, SpecificRecordBase> records = consumer.poll(Duration.ofSeconds(5));
-                if (records.isEmpty()) {
-                    continue;
+            log.info("Подписка на топики: {}", lanes.topics());
+            consumer.subscribe(lanes.topics(), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
                 }
-                for (ConsumerRecord<String, SpecificRecordBase> record : records) {
-                    UserActionAvro action = (UserActionAvro) record.value();
-                    List<EventSimilarityAvro> similarities = similarityService.updateSimilarity(action);
-                    log.info("Получено сообщение: {}", record.value());
-                    if (!similarities.isEmpty()) {
-                        for (EventSimilarityAvro similarity : similarities) {
-                            producer.send(new ProducerRecord<>(eventsSimilarityTopic, similarity));
-                            log.info(
-                                    "Отправлено сходство в Kafka: events=({}, {}), score={}",
-                                    similarity.getEventA(),
-                                    similarity.getEventB(),
-                                    similarity.getScore()
-                            );
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    for (TopicPartition partition : partitions) {
+                        Long offset = snapshotOffsets.remove(partition);
+                        if (offset != null) {
+                            log.info("Перемотка {} на смещение снапшота {}", partition, offset);
+                            consumer.seek(partition, offset);
                         }
                     }
                 }
-
-                consumer.commitAsync();
+            });
+            while (true) {
+                ConsumerRecords<String, SpecificRecordBase> records =
+                        consumer.poll(lanes.pollTimeout(Duration.ofSeconds(5)));
+                lanes.afterPoll(consumer, records);
+                if (!records.isEmpty()) {
+                    if (transactional && !uncommitted) {
+                        producer.beginTransaction();
+                    }
+                    process(records);
+                    uncommitted = true;
+                }
+                if (uncommitted && coalescer.flushIfDue(sender)) {
+                    commit(consumer, producer, false);
+                    uncommitted = false;
+                    evictInactiveEvents();
+                    if (snapshotManager.isDue()) {
+                        publisher.awaitDelivery(producer);
+                        snapshotManager.saveIfDue(currentOffsets);
+                    }
+                    log.debug("Состояние агрегатора: {}", similarityService.getStateFootprint());
+                }
             }
         } catch (WakeupException ignored) {
             log.info("Получено исключение WakeupException");
+        } catch (KafkaException e) {
+            log.error("Ошибка Kafka, состояние будет восстановлено из снапшота при перезапуске", e);
+            if (transactional && uncommitted && !(e instanceof ProducerFencedException)) {
+                producer.abortTransaction();
+            }
+            uncommitted = false;
+            aborted = true;
+            throw e;
         } finally {
             try {
-                producer.flush();
-                consumer.commitSync(currentOffsets);
+                log.info("Состояние агрегатора: {}", similarityService.getStateFootprint());
+                if (!aborted) {
+                    if (uncommitted) {
+                        coalescer.flush(sender);
+                    }
+                    publisher.awaitDelivery(producer);
+                    if (uncommitted || !transactional) {
+                        commit(consumer, producer, true);
+                    }
+                    snapshotManager.save(currentOffsets);
+                }
             } finally {
                 log.info("Закрываем консьюмер");
                 consumer.close();
@@ -81,4 +144,57 @@ public class AggregationStarter {
             }
         }
     }
+
+    private void evictInactiveEvents() {
+        long[] evicted = similarityService.maintainState();
+        if (evicted.length > 0 && topKIndex.isEnabled()) {
+            topKIndex.evict(eventId -> Arrays.binarySearch(evicted, eventId) >= 0);
+        }
+    }
+
+    private void commit(Consumer<String, SpecificRecordBase> consumer, Producer<String, SpecificRecordBase> producer,
+                        boolean sync) {
+        publisher.flush(producer);
+        if (kafkaClient.isTransactional()) {
+            producer.sendOffsetsToTransaction(Map.copyOf(currentOffsets), consumer.groupMetadata());
+            producer.commitTransaction();
+        } else if (sync) {
+            consumer.commitSync(currentOffsets);
+        } else {
+            consumer.commitAsync(Map.copyOf(currentOffsets), null);
+        }
+    }
+
+    private void process(ConsumerRecords<String, SpecificRecordBase> records) {
+        if (parallelEngine.isEnabled()) {
+            List<UserActionAvro> actions = new ArrayList<>(records.count());
+            lanes.ordered(records).forEach(record -> TopicFormat.forEachAction(record.value(), actions::add));
+            parallelEngine.process(actions, this::handle);
+        } else {
+            for (ConsumerRecord<String, SpecificRecordBase> record : lanes.ordered(records)) {
+                TopicFormat.forEachAction(record.value(), this::handle);
+            }
+        }
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, SpecificRecordBase>> partitionRecords = records.records(partition);
+            long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+            currentOffsets.put(partition, new OffsetAndMetadata(lastOffset + 1));
+        }
+    }
+
+    private void handle(UserActionAvro action) {
+        log.debug("Получено сообщение: {}", action);
+        similarityService.updateSimilarity(action, router);
+    }
+
+    private void route(long eventA, long eventB, double score, long timestamp) {
+        if (topKIndex.isEnabled() && !topKIndex.offer(eventA, eventB, score)) {
+            return;
+        }
+        if (coalescer.isEnabled()) {
+            coalescer.add(eventA, eventB, score, timestamp);
+        } else {
+            sender.accept(eventA, eventB, score, timestamp);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.storage.SimilarityStore;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+/**
+ * Ограничивает число пар, пересчитываемых на одно действие пользователя.
+ * Если у пользователя больше {@code maxPairs} других событий, обрабатываются только события, добавленные
+ * пользователем последними (LATEST_ADDED, порядок первого действия с событием, а не последнего),
+ * или равномерная случайная выборка (RESERVOIR, последовательный отбор без буфера).
+ * <p>
+ * Ограничение с потерями: пропущенная пара не получает приращения суммы минимальных весов, а сумма весов
+ * события его получает, поэтому сходство таких пар у активных пользователей занижается и расхождение
+ * накапливается. По умолчанию выключено ({@code max-pairs: 0}).
+ */
+@Component
+public class FanOutLimiter {
+    private final SimilarityStore store;
+    private final int maxPairs;
+    private final Sampling sampling;
+    private final Counter capped;
+    private final Counter skipped;
+    private final ThreadLocal<PartnerFilter> filters = ThreadLocal.withInitial(PartnerFilter::new);
+
+    public FanOutLimiter(SimilarityStore store,
+                         @Value("${aggregator.fanout.max-pairs:0}") int maxPairs,
+                         @Value("${aggregator.fanout.sampling:LATEST_ADDED}") Sampling sampling,
+                         MeterRegistry meterRegistry) {
+        this.store = store;
+        this.maxPairs = maxPairs;
+        this.sampling = sampling;
+        capped = meterRegistry.counter("aggregator.fanout.capped.actions");
+        skipped = meterRegistry.counter("aggregator.fanout.skipped.pairs");
+    }
+
+    public void forEachPartner(long userId, long eventId, LongConsumer action) {
+        int others = store.countUserEvents(userId) - 1;
+        PartnerFilter filter = filters.get();
+        if (maxPairs <= 0 || others <= maxPairs) {
+            filter.start(eventId, action, others, others);
+        } else {
+            capped.increment();
+            skipped.increment(others - maxPairs);
+            filter.start(eventId, action, others, maxPairs);
+        }
+        try {
+            store.forEachUserEvent(userId, filter);
+        } finally {
+            filter.action = null;
+        }
+    }
+
+    public enum Sampling {
+        LATEST_ADDED,
+        RESERVOIR
+    }
+
+    /**
+     * Пропускает само событие действия и отбирает {@code needed} из {@code remaining} остальных.
+     * Переиспользуется потоком, чтобы обход не создавал объектов на каждое действие.
+     */
+    private final class PartnerFilter implements LongConsumer {
+        private long eventId;
+        private LongConsumer action;
+        private int remaining;
+        private int needed;
+
+        private void start(long eventId, LongConsumer action, int remaining, int needed) {
+            this.eventId = eventId;
+            this.action = action;
+            this.remaining = remaining;
+            this.needed = needed;
+        }
+
+        @Override
+        public void accept(long otherEventId) {
+            if (otherEventId != eventId && next()) {
+                action.accept(otherEventId);
+            }
+        }
+
+        private boolean next() {
+            if (remaining <= needed) {
+                remaining--;
+                needed--;
+                return true;
+            }
+            boolean selected = switch (sampling) {
+                case LATEST_ADDED -> false;
+                case RESERVOIR -> ThreadLocalRandom.current().nextInt(remaining) < needed;
+            };
+            remaining--;
+            if (selected) {
+                needed--;
+            }
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.ewm.service;
+
+/**
+ * Получатель приращений агрегатов: суммы минимальных весов пары ({@code eventA < eventB})
+ * или суммы весов события ({@code eventA == eventB}).
+ */
+@FunctionalInterface
+public interface PairDeltaSink {
+    void accept(long eventA, long eventB, double delta, long timestamp);
+}
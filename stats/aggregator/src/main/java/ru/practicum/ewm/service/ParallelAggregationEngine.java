@@ -0,0 +1,82 @@
+package ru.practicum.ewm.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Распределяет действия пачки по воркерам по userId: действия одного пользователя всегда обрабатываются
+ * одним потоком в исходном порядке. {@link #process} возвращается только после обработки всей пачки,
+ * поэтому смещения, зафиксированные после него, не опережают обработанные записи.
+ * Пару событий могут затронуть пользователи разных воркеров; её сходство рассчитывается и отправляется
+ * под монитором пары ({@link ru.practicum.ewm.storage.SimilarityStore#pairLock}), поэтому отправки одной пары
+ * упорядочены.
+ */
+@Slf4j
+@Component
+public class ParallelAggregationEngine {
+    private final ExecutorService[] workers;
+
+    public ParallelAggregationEngine(@Value("${aggregator.parallel.workers:1}") int workersCount) {
+        workers = new ExecutorService[Math.max(1, workersCount)];
+        for (int i = 0; i < workers.length; i++) {
+            String name = "aggregation-worker-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+        }
+        log.info("Количество воркеров агрегации: {}", workers.length);
+    }
+
+    public boolean isEnabled() {
+        return workers.length > 1;
+    }
+
+    public void process(Iterable<UserActionAvro> actions, Consumer<UserActionAvro> handler) {
+        List<List<UserActionAvro>> stripes = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            stripes.add(new ArrayList<>());
+        }
+        for (UserActionAvro action : actions) {
+            stripes.get(stripe(action.getUserId())).add(action);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            List<UserActionAvro> stripe = stripes.get(i);
+            if (!stripe.isEmpty()) {
+                futures.add(workers[i].submit(() -> stripe.forEach(handler)));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание воркеров агрегации прервано", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Ошибка обработки действий воркером агрегации", e.getCause());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    private int stripe(long userId) {
+        return (int) Math.floorMod(userId ^ (userId >>> 32), (long) workers.length);
+    }
+}
@@ -0,0 +1,103 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.storage.LongPairDoubleHashMap;
+
+/**
+ * Схлопывает обновления сходства одной пары событий внутри окна: при сбросе отправляется только последний score.
+ * Время обновления хранится как double: миллисекунды эпохи укладываются в его мантиссу без потерь.
+ */
+@Slf4j
+@Component
+public class SimilarityCoalescer {
+    private final boolean enabled;
+    private final long windowMs;
+    private final LongPairDoubleHashMap pendingScores = new LongPairDoubleHashMap();
+    private final LongPairDoubleHashMap pendingTimestamps = new LongPairDoubleHashMap();
+
+    private final Counter received;
+    private final Counter emitted;
+    private final Counter bytesSaved;
+
+    private long windowStartedAt = System.currentTimeMillis();
+
+    public SimilarityCoalescer(@Value("${aggregator.coalesce.enabled:false}") boolean enabled,
+                               @Value("${aggregator.coalesce.window-ms:0}") long windowMs,
+                               MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.windowMs = windowMs;
+        received = meterRegistry.counter("aggregator.coalesce.received");
+        emitted = meterRegistry.counter("aggregator.coalesce.emitted");
+        bytesSaved = meterRegistry.counter("aggregator.coalesce.bytes.saved");
+        Gauge.builder("aggregator.coalesce.ratio", this, SimilarityCoalescer::ratio)
+                .description("Отношение рассчитанных обновлений сходства к отправленным")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void add(long eventA, long eventB, double score, long timestamp) {
+        received.increment();
+        synchronized (this) {
+            if (pendingScores.containsKey(eventA, eventB)) {
+                bytesSaved.increment(encodedSize(eventA, eventB, (long) pendingTimestamps.get(eventA, eventB, 0)));
+            }
+            pendingScores.put(eventA, eventB, score);
+            pendingTimestamps.put(eventA, eventB, timestamp);
+        }
+    }
+
+    /**
+     * Отправляет накопленные сходства, если окно истекло.
+     * Возвращает {@code true}, когда неотправленных обновлений не осталось и смещения можно фиксировать.
+     */
+    public synchronized boolean flushIfDue(SimilaritySink sender) {
+        if (!enabled) {
+            return true;
+        }
+        if (System.currentTimeMillis() - windowStartedAt < windowMs) {
+            return pendingScores.size() == 0;
+        }
+        flush(sender);
+        return true;
+    }
+
+    public synchronized void flush(SimilaritySink sender) {
+        int count = pendingScores.size();
+        pendingScores.forEach((eventA, eventB, score) ->
+                sender.accept(eventA, eventB, score, (long) pendingTimestamps.get(eventA, eventB, 0)));
+        pendingScores.clear();
+        pendingTimestamps.clear();
+        emitted.increment(count);
+        windowStartedAt = System.currentTimeMillis();
+        if (count > 0) {
+            log.debug("Отправлено {} схлопнутых сходств, коэффициент схлопывания {}", count, ratio());
+        }
+    }
+
+    private double ratio() {
+        double sent = emitted.count();
+        return sent == 0 ? 0 : received.count() / sent;
+    }
+
+    private static int encodedSize(long eventA, long eventB, long timestamp) {
+        return varLongSize(eventA) + varLongSize(eventB) + Double.BYTES + varLongSize(timestamp);
+    }
+
+    private static int varLongSize(long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        int size = 1;
+        while ((zigZag & ~0x7FL) != 0) {
+            zigZag >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
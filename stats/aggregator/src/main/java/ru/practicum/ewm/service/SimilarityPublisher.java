@@ -0,0 +1,98 @@
+package ru.practicum.ewm.service;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityBatchAvro;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Отправляет сходства в топик в его формате: по одной записи или конвертами {@link EventSimilarityBatchAvro}.
+ * Записи конверта заранее созданы и переиспользуются, поэтому перед фиксацией смещений
+ * неполный конверт нужно отправить через {@link #flush}.
+ * <p>
+ * Первая ошибка отправки запоминается; {@link #awaitDelivery} дожидается подтверждения всех отправок
+ * и бросает исключение, если какая-то из них не удалась. Снапшот состояния сохраняется только после неё,
+ * иначе он зафиксировал бы смещения, сходства по которым не дошли до Kafka.
+ */
+@Component
+public class SimilarityPublisher {
+    private final String topic;
+    private final boolean batched;
+    private final ThreadLocal<SimilarityRecordHolder> holders = ThreadLocal.withInitial(SimilarityRecordHolder::new);
+    private final SimilarityRecordHolder[] batchHolders;
+    private final EventSimilarityAvro[] batch;
+    private final EventSimilarityBatchAvro envelope = new EventSimilarityBatchAvro();
+    private final AtomicReference<Exception> sendFailure = new AtomicReference<>();
+    private final Callback callback = (metadata, e) -> {
+        if (e != null) {
+            sendFailure.compareAndSet(null, e);
+        }
+    };
+    private int batchSize;
+
+    public SimilarityPublisher(@Value("${topics.events-similarity}") String topic,
+                               @Value("${topics.formats.events-similarity:SINGLE}") TopicFormat format,
+                               @Value("${topics.envelope.max-size:500}") int maxSize) {
+        if (format == TopicFormat.PROTO) {
+            throw new IllegalStateException("Формат PROTO для сходств не поддерживается");
+        }
+        this.topic = topic;
+        batched = format == TopicFormat.BATCH;
+        int capacity = batched ? Math.max(1, maxSize) : 0;
+        batchHolders = new SimilarityRecordHolder[capacity];
+        batch = new EventSimilarityAvro[capacity];
+        for (int i = 0; i < capacity; i++) {
+            batchHolders[i] = new SimilarityRecordHolder();
+        }
+    }
+
+    public void publish(Producer<String, SpecificRecordBase> producer, long eventA, long eventB, double score,
+                        long timestamp) {
+        if (!batched) {
+            producer.send(new ProducerRecord<>(topic, holders.get().fill(eventA, eventB, score, timestamp)), callback);
+            return;
+        }
+        synchronized (this) {
+            batch[batchSize] = batchHolders[batchSize].fill(eventA, eventB, score, timestamp);
+            batchSize++;
+            if (batchSize == batch.length) {
+                sendBatch(producer);
+            }
+        }
+    }
+
+    public synchronized void flush(Producer<String, SpecificRecordBase> producer) {
+        if (batchSize > 0) {
+            sendBatch(producer);
+        }
+    }
+
+    /**
+     * Отправляет неполный конверт и ждёт подтверждения всех отправленных записей.
+     */
+    public void awaitDelivery(Producer<String, SpecificRecordBase> producer) {
+        flush(producer);
+        producer.flush();
+        Exception failure = sendFailure.get();
+        if (failure != null) {
+            throw new KafkaException("Не удалось отправить сходства в топик " + topic, failure);
+        }
+    }
+
+    private void sendBatch(Producer<String, SpecificRecordBase> producer) {
+        List<EventSimilarityAvro> similarities = Arrays.asList(batch).subList(0, batchSize);
+        envelope.setSimilarities(similarities);
+        producer.send(new ProducerRecord<>(topic, envelope), callback);
+        batchSize = 0;
+    }
+}
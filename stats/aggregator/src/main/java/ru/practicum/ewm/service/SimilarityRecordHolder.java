@@ -0,0 +1,27 @@
+package ru.practicum.ewm.service;
+
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+
+/**
+ * Переиспользуемая запись {@link EventSimilarityAvro} для отправки без аллокаций на каждую пару.
+ * Запись перезаписывается при следующем вызове {@link #fill}, поэтому её можно передавать только туда,
+ * где она сериализуется сразу, например в {@code Producer.send}, но не складывать в коллекции.
+ * Экземпляр не потокобезопасен.
+ */
+public final class SimilarityRecordHolder {
+    private final EventSimilarityAvro record = new EventSimilarityAvro();
+    private long timestampMillis = Long.MIN_VALUE;
+
+    public EventSimilarityAvro fill(long eventA, long eventB, double score, long timestamp) {
+        if (timestamp != timestampMillis) {
+            timestampMillis = timestamp;
+            record.setTimestamp(Instant.ofEpochMilli(timestamp));
+        }
+        record.setEventA(eventA);
+        record.setEventB(eventB);
+        record.setScore(score);
+        return record;
+    }
+}
@@ -2,141 +2,207 @@ package ru.practicum.ewm.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import ru.practicum.ewm.stats.avro.ActionTypeAvro;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.storage.SimilarityStore;
+import ru.practicum.ewm.storage.StoreFootprint;
 import ru.practicum.ewm.stats.avro.UserActionAvro;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class SimilarityService {
-    private final Map<Long, Map<Long, Double>> eventWeights = new HashMap<>();
-    private final Map<Long, Double> eventSummaryWeights = new HashMap<>();
-    private final Map<Long, Map<Long, Double>> eventMinSummaryWeights = new HashMap<>();
+    private static final long[] NOTHING_EVICTED = new long[0];
+
+    private final SimilarityStore store;
+    private final WeightDecay decay;
+    private final FanOutLimiter fanOutLimiter;
+    private final ThreadLocal<PairUpdate> pairUpdates = ThreadLocal.withInitial(PairUpdate::new);
+
+    @Value("${aggregator.eviction.horizon-ms:0}")
+    private long evictionHorizonMs;
+    @Value("${aggregator.eviction.interval-ms:600000}")
+    private long evictionIntervalMs;
+
+    private long lastEvictionAt = System.currentTimeMillis();
+
+    /**
+     * Пересчитывает сходства пар с событием из действия и передаёт их в {@code sink}.
+     * Возвращает число рассчитанных пар. На каждое действие не создаётся ни коллекций, ни записей Avro.
+     */
+    public int updateSimilarity(UserActionAvro userAction, SimilaritySink sink) {
+        return update(userAction, sink, null);
+    }
+
+    /**
+     * Обновляет только веса пользователя и передаёт в {@code sink} приращения сумм вместо сходств:
+     * сначала суммы весов события, затем суммы минимальных весов каждой пары, в том числе нулевые,
+     * чтобы владелец пары пересчитал её сходство. Сами суммы в хранилище не меняются.
+     */
+    public int updateWeights(UserActionAvro userAction, PairDeltaSink sink) {
+        return update(userAction, null, sink);
+    }
+
+    public void applyEventSumDelta(long eventId, double delta, long timestamp) {
+        if (evictionHorizonMs > 0) {
+            store.touchEvent(eventId, timestamp);
+        }
+        store.addEventSum(eventId, delta);
+    }
+
+    /**
+     * Применяет приращение суммы минимальных весов пары и возвращает её новое сходство.
+     */
+    public double applyPairDelta(long eventA, long eventB, double delta, long timestamp) {
+        if (evictionHorizonMs > 0) {
+            store.touchEvent(eventA, timestamp);
+            store.touchEvent(eventB, timestamp);
+        }
+        double minSum = delta == 0 ? store.getMinSum(eventA, eventB) : store.addMinSum(eventA, eventB, delta);
+        return calcSimilarity(eventA, eventB, minSum);
+    }
 
-    public List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction) {
+    private int update(UserActionAvro userAction, SimilaritySink sink, PairDeltaSink deltaSink) {
         long userId = userAction.getUserId();
         long eventId = userAction.getEventId();
 
-        Map<Long, Double> userWeights = eventWeights.computeIfAbsent(eventId, e -> new HashMap<>());
-        double oldWeight = userWeights.getOrDefault(userId, 0.0);
-        double newWeight = getWeightByActionType(userAction.getActionType());
-
-        log.info("Обновление сходства для пользователя {} и события {}: oldWeight={}, newWeight={}",
-                userId, eventId, oldWeight, newWeight);
+        long timestamp = userAction.getTimestamp().toEpochMilli();
+        if (evictionHorizonMs > 0) {
+            store.touchEvent(eventId, timestamp);
+        }
 
+        double oldWeight = store.getWeight(eventId, userId);
+        double newWeight = decay.scaled(ActionWeights.of(userAction.getActionType()), timestamp);
         if (oldWeight >= newWeight) {
-            log.debug("Старый вес больше или равен новому весу, обновление не требуется");
-            return List.of();
+            return 0;
         }
 
-        userWeights.merge(userId, newWeight, Math::max);
-        log.debug("Вес пользователя {} для события {} обновлен до {}", userId, eventId, userWeights.get(userId));
-
-        double oldSum = eventSummaryWeights.getOrDefault(eventId, 0.0);
-        double newSum = oldSum - oldWeight + newWeight;
-        eventSummaryWeights.put(eventId, newSum);
-        log.info("Суммарный вес события {} обновлен: oldSum={}, newSum={}", eventId, oldSum, newSum);
-
-        List<EventSimilarityAvro> eventSimilarityAvros = new ArrayList<>();
+        store.putWeight(eventId, userId, newWeight);
+        if (deltaSink == null) {
+            store.addEventSum(eventId, newWeight - oldWeight);
+        } else {
+            deltaSink.accept(eventId, eventId, newWeight - oldWeight, timestamp);
+        }
 
-        for (long otherEventId : eventWeights.keySet()) {
-            if (otherEventId == eventId ||
-                    eventWeights.get(otherEventId) == null ||
-                    !eventWeights.get(otherEventId).containsKey(userId)) {
-                continue;
-            }
-            double newSumMinPairWeight = updateMinWeightSum(eventId, otherEventId, userId, oldWeight, newWeight);
-            double similarity = calcSimilarity(eventId, otherEventId, newSumMinPairWeight);
-            log.info("Сходство между событиями {} и {}: {}", eventId, otherEventId, similarity);
-            eventSimilarityAvros.add(getEventSimilarityAvro(eventId, otherEventId, similarity, userAction.getTimestamp()));
+        PairUpdate update = pairUpdates.get();
+        update.start(userId, eventId, oldWeight, newWeight, timestamp, sink, deltaSink);
+        try {
+            fanOutLimiter.forEachPartner(userId, eventId, update);
+        } finally {
+            update.sink = null;
+            update.deltaSink = null;
         }
 
-        log.debug("Всего сходств рассчитано для события {}: {}", eventId, eventSimilarityAvros.size());
-        return eventSimilarityAvros;
+        if (log.isDebugEnabled()) {
+            log.debug("Действие пользователя {} с событием {}: вес {} -> {}, пересчитано пар: {}",
+                    userId, eventId, oldWeight, newWeight, update.count);
+        }
+        return update.count;
     }
 
-    private void putEventMinSummaryWeights(long eventA, long eventB, double sum) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        eventMinSummaryWeights
-                .computeIfAbsent(first, e -> new HashMap<>())
-                .put(second, sum);
+    public long[] maintainState() {
+        decay.rescaleIfNeeded(store);
+        long now = System.currentTimeMillis();
+        if (evictionHorizonMs <= 0 || now - lastEvictionAt < evictionIntervalMs) {
+            return NOTHING_EVICTED;
+        }
+        lastEvictionAt = now;
 
-        log.debug("Обновлена minSummaryWeight для пары ({}, {}): {}", first, second, sum);
+        double threshold = (double) decay.clock() - evictionHorizonMs;
+        LongStream.Builder inactive = LongStream.builder();
+        store.forEachEventActivity((eventId, lastActivity) -> {
+            if (lastActivity < threshold) {
+                inactive.add(eventId);
+            }
+        });
+        long[] evicted = inactive.build().sorted().toArray();
+        if (evicted.length > 0) {
+            store.removeEvents(eventId -> Arrays.binarySearch(evicted, eventId) >= 0);
+            log.info("Удалено {} событий без активности дольше {} мс, состояние: {}",
+                    evicted.length, evictionHorizonMs, store.footprint());
+        }
+        return evicted;
     }
 
-    private double getEventMinSummaryWeights(long eventA, long eventB) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        return eventMinSummaryWeights
-                .computeIfAbsent(first, e -> new HashMap<>())
-                .getOrDefault(second, 0.0);
+    public boolean isEvictionEnabled() {
+        return evictionHorizonMs > 0;
     }
 
-    private double getWeightByActionType(ActionTypeAvro actionType) {
-        double weight = switch (actionType) {
-            case VIEW -> 0.4;
-            case REGISTER -> 0.8;
-            case LIKE -> 1.0;
-        };
-        log.debug("Вес для действия {}: {}", actionType, weight);
-        return weight;
+    public StoreFootprint getStateFootprint() {
+        return store.footprint();
     }
 
-    private double updateMinWeightSum(long eventId, long otherEventId, long userId, double oldWeight, double newWeight) {
-        double oldWeightOtherEvent = eventWeights.get(otherEventId).get(userId);
-
-        double oldMinPairWeight = Math.min(oldWeight, oldWeightOtherEvent);
-        double newMinPairWeight = Math.min(newWeight, oldWeightOtherEvent);
-
-        long firstEventId = Math.min(eventId, otherEventId);
-        long secondEventId = Math.max(eventId, otherEventId);
-
-        double oldSumMinPairWeight = getEventMinSummaryWeights(firstEventId, secondEventId);
-
-        if (oldMinPairWeight == newMinPairWeight) {
-            log.debug("Мин. вес пары ({}, {}) не изменился", firstEventId, secondEventId);
-            return oldSumMinPairWeight;
+    /**
+     * Обход партнёров события для одного действия. Переиспользуется потоком от действия к действию,
+     * чтобы не создавать замыкание на каждый вызов.
+     */
+    private final class PairUpdate implements LongConsumer {
+        private long userId;
+        private long eventId;
+        private double oldWeight;
+        private double newWeight;
+        private long timestamp;
+        private SimilaritySink sink;
+        private PairDeltaSink deltaSink;
+        private int count;
+
+        private void start(long userId, long eventId, double oldWeight, double newWeight, long timestamp,
+                           SimilaritySink sink, PairDeltaSink deltaSink) {
+            this.userId = userId;
+            this.eventId = eventId;
+            this.oldWeight = oldWeight;
+            this.newWeight = newWeight;
+            this.timestamp = timestamp;
+            this.sink = sink;
+            this.deltaSink = deltaSink;
+            count = 0;
         }
 
-        double newSumMinPairWeight = oldSumMinPairWeight - oldMinPairWeight + newMinPairWeight;
-        putEventMinSummaryWeights(firstEventId, secondEventId, newSumMinPairWeight);
-
-        log.info("Сумма минимальных весов для пары ({}, {}) обновлена: oldSum={}, newSum={}",
-                firstEventId, secondEventId, oldSumMinPairWeight, newSumMinPairWeight);
-
-        return newSumMinPairWeight;
-    }
-
-    private double calcSimilarity(long eventId, long otherEventId, double newSumMinPairWeight) {
-        if (newSumMinPairWeight == 0) return 0;
-
-        double sumEventWeight = eventSummaryWeights.get(eventId);
-        double sumOtherEventWeight = eventSummaryWeights.get(otherEventId);
-        double similarity = newSumMinPairWeight / (Math.sqrt(sumEventWeight) * Math.sqrt(sumOtherEventWeight));
+        @Override
+        public void accept(long otherEventId) {
+            long firstEventId = Math.min(eventId, otherEventId);
+            long secondEventId = Math.max(eventId, otherEventId);
+
+            double otherWeight = store.getWeight(otherEventId, userId);
+            double oldMinPairWeight = Math.min(oldWeight, otherWeight);
+            double newMinPairWeight = Math.min(newWeight, otherWeight);
+            count++;
+            if (deltaSink != null) {
+                deltaSink.accept(firstEventId, secondEventId, newMinPairWeight - oldMinPairWeight, timestamp);
+                return;
+            }
+            double delta = newMinPairWeight - oldMinPairWeight;
+            Object lock = store.pairLock(firstEventId, secondEventId);
+            if (lock == null) {
+                emit(firstEventId, secondEventId, delta);
+            } else {
+                synchronized (lock) {
+                    emit(firstEventId, secondEventId, delta);
+                }
+            }
+        }
 
-        log.debug("Вычислено сходство для пары ({}, {}): {}", eventId, otherEventId, similarity);
-        return similarity;
+        /**
+         * Обновляет сумму минимумов пары, читает суммы событий и отправляет сходство одним шагом:
+         * под монитором пары воркеры, делящие пару, отправляют сходства в порядке их расчёта.
+         */
+        private void emit(long firstEventId, long secondEventId, double delta) {
+            double minSum = delta == 0
+                    ? store.getMinSum(firstEventId, secondEventId)
+                    : store.addMinSum(firstEventId, secondEventId, delta);
+            sink.accept(firstEventId, secondEventId, calcSimilarity(firstEventId, secondEventId, minSum), timestamp);
+        }
     }
 
-    private EventSimilarityAvro getEventSimilarityAvro(long eventId, long otherEventId, double similarity,
-                                                       java.time.Instant timestamp) {
-        long firstEventId = Math.min(eventId, otherEventId);
-        long secondEventId = Math.max(eventId, otherEventId);
-
-        EventSimilarityAvro avro = EventSimilarityAvro.newBuilder()
-                .setEventA(firstEventId)
-                .setEventB(secondEventId)
-                .setTimestamp(timestamp)
-                .setScore(similarity).build();
+    private double calcSimilarity(long eventId, long otherEventId, double minSum) {
+        if (minSum == 0) return 0;
 
-        log.debug("Сгенерирован EventSimilarityAvro: {}", avro);
-        return avro;
+        double sumEventWeight = store.getEventSum(eventId);
+        double sumOtherEventWeight = store.getEventSum(otherEventId);
+        return minSum / (Math.sqrt(sumEventWeight) * Math.sqrt(sumOtherEventWeight));
     }
 }
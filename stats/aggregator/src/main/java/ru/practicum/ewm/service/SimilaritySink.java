@@ -0,0 +1,9 @@
+package ru.practicum.ewm.service;
+
+/**
+ * Получатель рассчитанного сходства пары событий; {@code eventA < eventB}.
+ */
+@FunctionalInterface
+public interface SimilaritySink {
+    void accept(long eventA, long eventB, double score, long timestamp);
+}
@@ -0,0 +1,138 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.storage.LongObjectHashMap;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Для каждого события хранит K самых похожих соседей.
+ * Обновление пары пропускается дальше, только если пара входит в топ-K хотя бы одного из своих событий,
+ * вытесняет оттуда другого соседа или меняет в нём свой score.
+ * <p>
+ * Выход пары из топ-K не публикуется: ни удаления, ни нового сходства для неё больше не отправляется,
+ * и анализатор хранит последнее переданное значение. Поэтому фильтр по умолчанию выключен ({@code top-k: 0}).
+ */
+@Component
+public class TopKNeighbourIndex {
+    private final int k;
+    private final LongObjectHashMap<Neighbours> neighbours = new LongObjectHashMap<>();
+    private final Counter passed;
+    private final Counter suppressed;
+
+    public TopKNeighbourIndex(@Value("${aggregator.top-k:0}") int k, MeterRegistry meterRegistry) {
+        this.k = k;
+        passed = meterRegistry.counter("aggregator.topk.passed");
+        suppressed = meterRegistry.counter("aggregator.topk.suppressed");
+    }
+
+    public boolean isEnabled() {
+        return k > 0;
+    }
+
+    public boolean offer(long eventA, long eventB, double score) {
+        boolean changedA = neighboursOf(eventA).update(eventB, score);
+        boolean changedB = neighboursOf(eventB).update(eventA, score);
+        if (changedA || changedB) {
+            passed.increment();
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    public void evict(LongPredicate evicted) {
+        synchronized (neighbours) {
+            neighbours.removeIf(evicted);
+            neighbours.forEachValue(entry -> entry.remove(evicted));
+        }
+    }
+
+    private Neighbours neighboursOf(long eventId) {
+        synchronized (neighbours) {
+            Neighbours entry = neighbours.get(eventId);
+            return entry != null ? entry : neighbours.computeIfAbsent(eventId, id -> new Neighbours(k));
+        }
+    }
+
+    private static final class Neighbours {
+        private final long[] events;
+        private final double[] scores;
+        private int size;
+
+        private Neighbours(int k) {
+            events = new long[k];
+            scores = new double[k];
+        }
+
+        synchronized boolean update(long eventId, double score) {
+            int index = indexOf(eventId);
+            if (index >= 0) {
+                if (scores[index] == score) {
+                    return false;
+                }
+                scores[index] = score;
+                reorder(index);
+                return true;
+            }
+            if (size < events.length) {
+                events[size] = eventId;
+                scores[size] = score;
+                reorder(size++);
+                return true;
+            }
+            int last = size - 1;
+            if (score <= scores[last]) {
+                return false;
+            }
+            events[last] = eventId;
+            scores[last] = score;
+            reorder(last);
+            return true;
+        }
+
+        synchronized void remove(LongPredicate evicted) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!evicted.test(events[i])) {
+                    events[kept] = events[i];
+                    scores[kept] = scores[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+
+        private int indexOf(long eventId) {
+            for (int i = 0; i < size; i++) {
+                if (events[i] == eventId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void reorder(int index) {
+            while (index > 0 && scores[index] > scores[index - 1]) {
+                swap(index, index - 1);
+                index--;
+            }
+            while (index < size - 1 && scores[index] < scores[index + 1]) {
+                swap(index, index + 1);
+                index++;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long event = events[i];
+            events[i] = events[j];
+            events[j] = event;
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.practicum.ewm.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.storage.SimilarityStore;
+
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Экспоненциальное затухание весов по схеме forward decay: вес действия в момент t хранится умноженным
+ * на 2^((t - landmark) / halfLife). Все веса, суммы и суммы минимумов масштабируются одинаково,
+ * поэтому косинусное сходство не требует пересчёта при чтении, а более свежие действия весят больше.
+ */
+@Slf4j
+@Component
+public class WeightDecay {
+    private static final double RESCALE_EXPONENT = 64;
+
+    private final long halfLifeMs;
+    private final LongAccumulator clock = new LongAccumulator(Long::max, Long.MIN_VALUE);
+    private volatile long landmark = System.currentTimeMillis();
+
+    public WeightDecay(@Value("${aggregator.decay.half-life-ms:0}") long halfLifeMs) {
+        this.halfLifeMs = halfLifeMs;
+    }
+
+    public boolean isEnabled() {
+        return halfLifeMs > 0;
+    }
+
+    public double scaled(double weight, long timestamp) {
+        clock.accumulate(timestamp);
+        if (!isEnabled()) {
+            return weight;
+        }
+        return weight * Math.pow(2, (double) (timestamp - landmark) / halfLifeMs);
+    }
+
+    public long clock() {
+        return clock.get();
+    }
+
+    public long getLandmark() {
+        return landmark;
+    }
+
+    public void setLandmark(long landmark) {
+        this.landmark = landmark;
+    }
+
+    public void rescaleIfNeeded(SimilarityStore store) {
+        long now = clock.get();
+        if (!isEnabled() || now == Long.MIN_VALUE) {
+            return;
+        }
+        double exponent = (double) (now - landmark) / halfLifeMs;
+        if (exponent > RESCALE_EXPONENT) {
+            store.scale(Math.pow(2, -exponent));
+            landmark = now;
+            log.info("Веса перемасштабированы, новая опорная точка затухания: {}", landmark);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package ru.practicum.ewm.sharding;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.kafka.KafkaClient;
+import ru.practicum.ewm.lane.KeyHash;
+import ru.practicum.ewm.serializer.PairDeltaDeserializer;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.service.PairDeltaSink;
+import ru.practicum.ewm.service.SimilarityCoalescer;
+import ru.practicum.ewm.service.SimilarityPublisher;
+import ru.practicum.ewm.service.SimilarityService;
+import ru.practicum.ewm.service.SimilaritySink;
+import ru.practicum.ewm.service.TopKNeighbourIndex;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.snapshot.SnapshotManager;
+import ru.practicum.ewm.stats.avro.PairDeltaAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Агрегатор, разделённый на {@code instance-count} экземпляров со статическим распределением партиций:
+ * экземпляр {@code instance-index} читает партиции, номер которых даёт этот остаток от деления.
+ * <ul>
+ *     <li>Исходные действия перекладываются в топик по пользователю: партиция выбирается по userId.</li>
+ *     <li>Владелец пользователя хранит его веса и публикует приращения: сумму весов события всем партициям
+ *     топика приращений, сумму минимумов пары — в партицию этой пары.</li>
+ *     <li>Владелец пары хранит суммы минимумов своих пар и суммы весов всех событий и считает сходство.</li>
+ * </ul>
+ * Сумму весов события нельзя отправить одному владельцу: пары с событием разбросаны по всем партициям, а
+ * каждому владельцу пары нужны суммы обоих её событий. Поэтому изменение веса стоит {@code P} записей
+ * суммы (P — число партиций топика приращений) плюс по записи на каждое другое событие пользователя.
+ * При P, сравнимом с числом событий пользователя, рассылка удваивает трафик приращений; соотношение
+ * видно по метрике {@code aggregator.sharding.deltas} с тегом {@code kind}.
+ * После перезапуска действия от смещения снапшота до зафиксированного смещения применяются к весам
+ * без повторной публикации приращений: они уже были отправлены до фиксации.
+ * Затухание весов и удаление неактивных событий не поддерживаются: каждый экземпляр хранит лишь часть
+ * состояния, и без согласования экземпляры разошлись бы в суммах.
+ * <p>
+ * Если коллектор уже распределяет действия по userId ({@code kafka.producer.partition-key: USER}
+ * с той же хеш-функцией), перекладка не нужна: при {@code source-partitioned-by-user} исходный топик
+ * читается как топик по пользователю.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ShardedAggregationStarter {
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+    private static final PairDeltaSink REPLAYED = (eventA, eventB, delta, timestamp) -> {
+    };
+
+    private final KafkaClient kafkaClient;
+    private final SimilarityService similarityService;
+    private final SnapshotManager snapshotManager;
+    private final SimilarityCoalescer coalescer;
+    private final TopKNeighbourIndex topKIndex;
+    private final WeightDecay decay;
+    private final SimilarityPublisher publisher;
+    private final PairDeltaAvro deltaRecord = new PairDeltaAvro();
+    private final Map<TopicPartition, OffsetAndMetadata> actionOffsets = new HashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> deltaOffsets = new HashMap<>();
+    private final Map<TopicPartition, Long> replayUntil = new HashMap<>();
+    private final Map<Integer, List<UserActionAvro>> rekeyed = new HashMap<>();
+    private final MeterRegistry meterRegistry;
+    private SimilaritySink sender;
+    private PairDeltaSink deltaSender;
+    private Counter eventSumDeltas;
+    private Counter pairDeltas;
+    private int actionPartitions;
+    private int deltaPartitions;
+
+    @Value("${topics.user-actions}")
+    private String userActionsTopic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.formats.user-actions:SINGLE}")
+    private TopicFormat actionsFormat;
+    @Value("${topics.sharding.actions-by-user:stats.user-actions.by-user.v1}")
+    private String actionsByUserTopic;
+    @Value("${topics.sharding.pair-deltas:stats.pair-deltas.v1}")
+    private String pairDeltasTopic;
+    @Value("${aggregator.sharding.instance-index:0}")
+    private int instanceIndex;
+    @Value("${aggregator.sharding.instance-count:1}")
+    private int instanceCount;
+    @Value("${aggregator.sharding.commit-interval-ms:1000}")
+    private long commitIntervalMs;
+    @Value("${aggregator.sharding.source-partitioned-by-user:false}")
+    private boolean sourcePartitionedByUser;
+
+    public void start() {
+        log.info("Старт шардированного агрегатора: экземпляр {} из {}", instanceIndex, instanceCount);
+        if (instanceIndex < 0 || instanceIndex >= instanceCount) {
+            throw new IllegalStateException("Некорректный номер экземпляра " + instanceIndex
+                    + " при количестве " + instanceCount);
+        }
+        if (kafkaClient.isTransactional()) {
+            throw new IllegalStateException("Транзакционный режим не поддерживается шардированным агрегатором");
+        }
+        if (!priorityTopic.isBlank()) {
+            throw new IllegalStateException("Приоритетная полоса действий не поддерживается шардированным агрегатором");
+        }
+        if (actionsFormat == TopicFormat.PROTO && !sourcePartitionedByUser) {
+            throw new IllegalStateException("Формат PROTO не поддерживается шардированным агрегатором: "
+                    + "перекладка по пользователю пишет записи Avro");
+        }
+        if (decay.isEnabled()) {
+            throw new IllegalStateException("Затухание весов не поддерживается шардированным агрегатором: "
+                    + "опорные точки экземпляров не согласованы");
+        }
+        if (similarityService.isEvictionEnabled()) {
+            throw new IllegalStateException("Удаление неактивных событий не поддерживается шардированным агрегатором: "
+                    + "экземпляры не согласуют, какие события удалены");
+        }
+
+        eventSumDeltas = meterRegistry.counter("aggregator.sharding.deltas", "kind", "event-sum");
+        pairDeltas = meterRegistry.counter("aggregator.sharding.deltas", "kind", "pair");
+        Consumer<String, SpecificRecordBase> actionsConsumer = kafkaClient.getConsumer();
+        Consumer<String, SpecificRecordBase> deltasConsumer =
+                kafkaClient.createConsumer(PairDeltaDeserializer.class.getName());
+        Producer<String, SpecificRecordBase> producer = kafkaClient.getProducer();
+        sender = (eventA, eventB, score, timestamp) -> publisher.publish(producer, eventA, eventB, score, timestamp);
+        deltaSender = (eventA, eventB, delta, timestamp) -> sendDelta(producer, eventA, eventB, delta, timestamp);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            actionsConsumer.wakeup();
+            deltasConsumer.wakeup();
+        }));
+
+        boolean failed = false;
+        try {
+            assign(actionsConsumer, deltasConsumer);
+            long lastCommitAt = System.currentTimeMillis();
+            while (true) {
+                ConsumerRecords<String, SpecificRecordBase> actions = actionsConsumer.poll(POLL_TIMEOUT);
+                for (ConsumerRecord<String, SpecificRecordBase> record : actions) {
+                    if (!sourcePartitionedByUser && userActionsTopic.equals(record.topic())) {
+                        TopicFormat.forEachAction(record.value(), action -> rekey(producer, action));
+                    } else {
+                        TopicFormat.forEachAction(record.value(), action -> updateWeights(record, action));
+                    }
+                }
+                sendRekeyed(producer);
+                trackOffsets(actions, actionOffsets);
+
+                ConsumerRecords<String, SpecificRecordBase> deltas = deltasConsumer.poll(POLL_TIMEOUT);
+                for (ConsumerRecord<String, SpecificRecordBase> record : deltas) {
+                    applyDelta((PairDeltaAvro) record.value());
+                }
+                trackOffsets(deltas, deltaOffsets);
+
+                long now = System.currentTimeMillis();
+                if (now - lastCommitAt >= commitIntervalMs && coalescer.flushIfDue(sender)) {
+                    publisher.flush(producer);
+                    producer.flush();
+                    commit(actionsConsumer, deltasConsumer);
+                    lastCommitAt = now;
+                    snapshotManager.saveIfDue(statefulOffsets());
+                }
+            }
+        } catch (WakeupException ignored) {
+            log.info("Получено исключение WakeupException");
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            try {
+                log.info("Состояние агрегатора: {}. Отправлено приращений: сумм событий {}, пар {}",
+                        similarityService.getStateFootprint(), (long) eventSumDeltas.count(),
+                        (long) pairDeltas.count());
+                if (!failed) {
+                    coalescer.flush(sender);
+                    publisher.flush(producer);
+                    producer.flush();
+                    commit(actionsConsumer, deltasConsumer);
+                    snapshotManager.save(statefulOffsets());
+                }
+            } finally {
+                log.info("Закрываем консьюмеры");
+                actionsConsumer.close();
+                deltasConsumer.close();
+                log.info("Закрываем продюсер");
+                producer.close();
+            }
+        }
+    }
+
+    private void assign(Consumer<String, SpecificRecordBase> actionsConsumer,
+                        Consumer<String, SpecificRecordBase> deltasConsumer) {
+        String byUserTopic = sourcePartitionedByUser ? userActionsTopic : actionsByUserTopic;
+        List<TopicPartition> sources = sourcePartitionedByUser
+                ? List.of()
+                : ownedPartitions(actionsConsumer, userActionsTopic);
+        List<TopicPartition> users = ownedPartitions(actionsConsumer, byUserTopic);
+        List<TopicPartition> pairs = ownedPartitions(deltasConsumer, pairDeltasTopic);
+        actionPartitions = actionsConsumer.partitionsFor(byUserTopic).size();
+        deltaPartitions = deltasConsumer.partitionsFor(pairDeltasTopic).size();
+        log.info("Назначены партиции: действия {}, пользователи {}, пары {}", sources, users, pairs);
+
+        List<TopicPartition> actionsAssignment = new ArrayList<>(sources);
+        actionsAssignment.addAll(users);
+        actionsConsumer.assign(actionsAssignment);
+        deltasConsumer.assign(pairs);
+
+        Map<TopicPartition, Long> snapshotOffsets = snapshotManager.restore();
+        Map<TopicPartition, OffsetAndMetadata> committed = actionsConsumer.committed(new HashSet<>(users));
+        for (TopicPartition partition : users) {
+            Long offset = snapshotOffsets.get(partition);
+            if (offset == null) {
+                continue;
+            }
+            log.info("Перемотка {} на смещение снапшота {}", partition, offset);
+            actionsConsumer.seek(partition, offset);
+            OffsetAndMetadata committedOffset = committed.get(partition);
+            if (committedOffset != null && committedOffset.offset() > offset) {
+                replayUntil.put(partition, committedOffset.offset());
+            }
+        }
+        for (TopicPartition partition : pairs) {
+            Long offset = snapshotOffsets.get(partition);
+            if (offset != null) {
+                log.info("Перемотка {} на смещение снапшота {}", partition, offset);
+                deltasConsumer.seek(partition, offset);
+            }
+        }
+    }
+
+    private List<TopicPartition> ownedPartitions(Consumer<String, SpecificRecordBase> consumer, String topic) {
+        List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+        if (partitions == null || partitions.isEmpty()) {
+            throw new IllegalStateException("Топик " + topic + " не найден");
+        }
+        List<TopicPartition> owned = new ArrayList<>();
+        for (PartitionInfo partition : partitions) {
+            if (partition.partition() % instanceCount == instanceIndex) {
+                owned.add(new TopicPartition(topic, partition.partition()));
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * В формате {@link TopicFormat#BATCH} действия копятся по партициям до конца обработки выборки:
+     * топик по пользователю читается тем же десериализатором, что и исходный.
+     */
+    private void rekey(Producer<String, SpecificRecordBase> producer, UserActionAvro action) {
+        int partition = KeyHash.partitionOf(action.getUserId(), actionPartitions);
+        if (actionsFormat == TopicFormat.BATCH) {
+            rekeyed.computeIfAbsent(partition, p -> new ArrayList<>()).add(action);
+        } else {
+            producer.send(new ProducerRecord<>(actionsByUserTopic, partition, null, action));
+        }
+    }
+
+    private void sendRekeyed(Producer<String, SpecificRecordBase> producer) {
+        if (rekeyed.isEmpty()) {
+            return;
+        }
+        rekeyed.forEach((partition, batch) -> producer.send(new ProducerRecord<>(actionsByUserTopic, partition, null,
+                new UserActionBatchAvro(batch))));
+        rekeyed.clear();
+    }
+
+    private void updateWeights(ConsumerRecord<String, SpecificRecordBase> record, UserActionAvro action) {
+        if (!replayUntil.isEmpty()) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            Long until = replayUntil.get(partition);
+            if (until != null) {
+                if (record.offset() + 1 >= until) {
+                    replayUntil.remove(partition);
+                    log.info("Повторное применение действий {} до смещения {} завершено", partition, until);
+                }
+                if (record.offset() < until) {
+                    similarityService.updateWeights(action, REPLAYED);
+                    return;
+                }
+            }
+        }
+        similarityService.updateWeights(action, deltaSender);
+    }
+
+    private void applyDelta(PairDeltaAvro delta) {
+        long eventA = delta.getEventA();
+        long eventB = delta.getEventB();
+        long timestamp = delta.getTimestamp().toEpochMilli();
+        if (eventA == eventB) {
+            similarityService.applyEventSumDelta(eventA, delta.getDelta(), timestamp);
+        } else {
+            route(eventA, eventB, similarityService.applyPairDelta(eventA, eventB, delta.getDelta(), timestamp),
+                    timestamp);
+        }
+    }
+
+    private void sendDelta(Producer<String, SpecificRecordBase> producer, long eventA, long eventB, double delta,
+                           long timestamp) {
+        if (deltaRecord.getTimestamp() == null || deltaRecord.getTimestamp().toEpochMilli() != timestamp) {
+            deltaRecord.setTimestamp(Instant.ofEpochMilli(timestamp));
+        }
+        deltaRecord.setEventA(eventA);
+        deltaRecord.setEventB(eventB);
+        deltaRecord.setDelta(delta);
+        if (eventA == eventB) {
+            for (int partition = 0; partition < deltaPartitions; partition++) {
+                producer.send(new ProducerRecord<>(pairDeltasTopic, partition, null, deltaRecord));
+            }
+            eventSumDeltas.increment(deltaPartitions);
+        } else {
+            int partition = KeyHash.partitionOf(eventA, eventB, deltaPartitions);
+            producer.send(new ProducerRecord<>(pairDeltasTopic, partition, null, deltaRecord));
+            pairDeltas.increment();
+        }
+    }
+
+    private void route(long eventA, long eventB, double score, long timestamp) {
+        if (topKIndex.isEnabled() && !topKIndex.offer(eventA, eventB, score)) {
+            return;
+        }
+        if (coalescer.isEnabled()) {
+            coalescer.add(eventA, eventB, score, timestamp);
+        } else {
+            sender.accept(eventA, eventB, score, timestamp);
+        }
+    }
+
+    private void commit(Consumer<String, SpecificRecordBase> actionsConsumer,
+                        Consumer<String, SpecificRecordBase> deltasConsumer) {
+        if (!actionOffsets.isEmpty()) {
+            actionsConsumer.commitSync(actionOffsets);
+        }
+        if (!deltaOffsets.isEmpty()) {
+            deltasConsumer.commitSync(deltaOffsets);
+        }
+    }
+
+    /**
+     * Смещения топиков, по которым построено локальное состояние; исходный топик действий состояния не имеет,
+     * если только он сам не распределён по пользователю.
+     */
+    private Map<TopicPartition, OffsetAndMetadata> statefulOffsets() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>(deltaOffsets);
+        actionOffsets.forEach((partition, offset) -> {
+            if (sourcePartitionedByUser || !partition.topic().equals(userActionsTopic)) {
+                offsets.put(partition, offset);
+            }
+        });
+        return offsets;
+    }
+
+    private static void trackOffsets(ConsumerRecords<String, SpecificRecordBase> records,
+                                     Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, SpecificRecordBase>> partitionRecords = records.records(partition);
+            long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+            offsets.put(partition, new OffsetAndMetadata(lastOffset + 1));
+        }
+    }
+
+}
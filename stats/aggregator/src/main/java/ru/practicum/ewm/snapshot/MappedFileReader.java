@@ -0,0 +1,60 @@
+package ru.practicum.ewm.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedFileReader implements Closeable {
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+
+    MappedFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(REGION_SIZE, size));
+    }
+
+    int getInt() throws IOException {
+        return ensure(Integer.BYTES).getInt();
+    }
+
+    long getLong() throws IOException {
+        return ensure(Long.BYTES).getLong();
+    }
+
+    double getDouble() throws IOException {
+        return ensure(Double.BYTES).getDouble();
+    }
+
+    String getString() throws IOException {
+        int length = getInt();
+        byte[] bytes = new byte[length];
+        ensure(length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            regionStart += buffer.position();
+            long length = Math.min(Math.max(REGION_SIZE, bytes), size - regionStart);
+            if (length < bytes) {
+                throw new IOException("Файл снапшота обрезан: позиция " + regionStart + ", размер " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+        }
+        return buffer;
+    }
+}
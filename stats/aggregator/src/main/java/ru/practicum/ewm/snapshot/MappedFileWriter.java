@@ -0,0 +1,68 @@
+package ru.practicum.ewm.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedFileWriter implements Closeable {
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+
+    MappedFileWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+    }
+
+    void putInt(int value) {
+        ensure(Integer.BYTES).putInt(value);
+    }
+
+    void putLong(long value) {
+        ensure(Long.BYTES).putLong(value);
+    }
+
+    void putDouble(double value) {
+        ensure(Double.BYTES).putDouble(value);
+    }
+
+    void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensure(bytes.length).put(bytes);
+    }
+
+    long position() {
+        return regionStart + buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        long size = position();
+        buffer.force();
+        channel.truncate(size);
+        channel.force(true);
+        channel.close();
+    }
+
+    private MappedByteBuffer ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                buffer.force();
+                regionStart += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, bytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка записи снапшота", e);
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,211 @@
+package ru.practicum.ewm.snapshot;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.storage.SimilarityStore;
+import ru.practicum.ewm.storage.StoreFootprint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сохраняет состояние агрегатора вместе со смещениями топиков в файл и восстанавливает его при старте.
+ * Неудачные сохранения считаются в {@code aggregator.snapshot.saves{result=failed}}; если задан
+ * {@code max-consecutive-failures}, столько неудач подряд останавливают цикл агрегации исключением.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SnapshotManager {
+    private static final int MAGIC = 0x41474753;
+    private static final int VERSION = 2;
+
+    private final SimilarityStore store;
+    private final WeightDecay decay;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${aggregator.snapshot.enabled:false}")
+    private boolean enabled;
+    @Value("${aggregator.snapshot.path:aggregator-state.snapshot}")
+    private String path;
+    @Value("${aggregator.snapshot.interval-ms:60000}")
+    private long intervalMs;
+    @Value("${aggregator.snapshot.max-consecutive-failures:0}")
+    private int maxConsecutiveFailures;
+
+    private final Map<TopicPartition, Long> snapshotOffsets = new HashMap<>();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong consecutiveFailures = new AtomicLong();
+    private long lastSnapshotAt;
+
+    @PostConstruct
+    public void registerMetrics() {
+        FunctionCounter.builder("aggregator.snapshot.saves", saved, AtomicLong::get)
+                .description("Сохранённые снапшоты состояния")
+                .tag("result", "saved")
+                .register(meterRegistry);
+        FunctionCounter.builder("aggregator.snapshot.saves", failed, AtomicLong::get)
+                .description("Неудачные попытки сохранить снапшот состояния")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("aggregator.snapshot.consecutive-failures", consecutiveFailures, AtomicLong::get)
+                .description("Неудачные сохранения снапшота подряд")
+                .register(meterRegistry);
+    }
+
+    public Map<TopicPartition, Long> restore() {
+        lastSnapshotAt = System.currentTimeMillis();
+        Path file = Path.of(path);
+        if (!enabled || !Files.exists(file)) {
+            log.info("Снапшот состояния не найден, агрегатор стартует с пустым состоянием");
+            return Map.of();
+        }
+
+        long startedAt = System.currentTimeMillis();
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            int magic = reader.getInt();
+            int version = reader.getInt();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IllegalStateException("Неизвестный формат снапшота: " + path);
+            }
+            long createdAt = reader.getLong();
+            if (version >= 2) {
+                decay.setLandmark(reader.getLong());
+            }
+
+            int partitions = reader.getInt();
+            for (int i = 0; i < partitions; i++) {
+                String topic = reader.getString();
+                int partition = reader.getInt();
+                snapshotOffsets.put(new TopicPartition(topic, partition), reader.getLong());
+            }
+
+            long weights = reader.getLong();
+            for (long i = 0; i < weights; i++) {
+                store.putWeight(reader.getLong(), reader.getLong(), reader.getDouble());
+            }
+            long events = reader.getLong();
+            for (long i = 0; i < events; i++) {
+                store.addEventSum(reader.getLong(), reader.getDouble());
+            }
+            long pairs = reader.getLong();
+            for (long i = 0; i < pairs; i++) {
+                store.addMinSum(reader.getLong(), reader.getLong(), reader.getDouble());
+            }
+            if (version >= 2) {
+                long activities = reader.getLong();
+                for (long i = 0; i < activities; i++) {
+                    store.touchEvent(reader.getLong(), reader.getLong());
+                }
+            }
+
+            log.info("Состояние восстановлено из снапшота {} от {} за {} мс: {}, смещения: {}",
+                    path, createdAt, System.currentTimeMillis() - startedAt, store.footprint(), snapshotOffsets);
+            return Map.copyOf(snapshotOffsets);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать снапшот " + path, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Пора ли сохранять снапшот: перед сохранением вызывающий должен дождаться подтверждения отправки
+     * сходств по сохраняемым смещениям.
+     */
+    public boolean isDue() {
+        return enabled && System.currentTimeMillis() - lastSnapshotAt >= intervalMs;
+    }
+
+    public void saveIfDue(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (isDue()) {
+            save(offsets);
+            long failures = consecutiveFailures.get();
+            if (maxConsecutiveFailures > 0 && failures >= maxConsecutiveFailures) {
+                throw new IllegalStateException("Снапшот состояния не сохраняется " + failures + " раз подряд: " + path);
+            }
+        }
+    }
+
+    public void save(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (!enabled || offsets.isEmpty()) {
+            return;
+        }
+
+        offsets.forEach((partition, offset) -> snapshotOffsets.put(partition, offset.offset()));
+        long startedAt = System.currentTimeMillis();
+        Path file = Path.of(path);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        StoreFootprint footprint = store.footprint();
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            try (MappedFileWriter writer = new MappedFileWriter(tmp)) {
+                writer.putInt(MAGIC);
+                writer.putInt(VERSION);
+                writer.putLong(startedAt);
+                writer.putLong(decay.getLandmark());
+
+                writer.putInt(snapshotOffsets.size());
+                snapshotOffsets.forEach((partition, offset) -> {
+                    writer.putString(partition.topic());
+                    writer.putInt(partition.partition());
+                    writer.putLong(offset);
+                });
+
+                writer.putLong(footprint.weights());
+                store.forEachWeight((eventId, userId, weight) -> {
+                    writer.putLong(eventId);
+                    writer.putLong(userId);
+                    writer.putDouble(weight);
+                });
+                writer.putLong(footprint.events());
+                store.forEachEventSum((eventId, sum) -> {
+                    writer.putLong(eventId);
+                    writer.putDouble(sum);
+                });
+                writer.putLong(footprint.pairs());
+                store.forEachMinSum((eventA, eventB, sum) -> {
+                    writer.putLong(eventA);
+                    writer.putLong(eventB);
+                    writer.putDouble(sum);
+                });
+                writer.putLong(footprint.activities());
+                store.forEachEventActivity((eventId, lastActivity) -> {
+                    writer.putLong(eventId);
+                    writer.putLong((long) lastActivity);
+                });
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            saved.incrementAndGet();
+            consecutiveFailures.set(0);
+            log.info("Снапшот состояния сохранён в {} за {} мс: {}", path, System.currentTimeMillis() - startedAt,
+                    footprint);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            log.error("Не удалось сохранить снапшот состояния в {}, неудач подряд: {}", path,
+                    consecutiveFailures.incrementAndGet(), e);
+        } finally {
+            lastSnapshotAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.practicum.ewm.storage;
+
+import ru.practicum.ewm.lane.KeyHash;
+
+final class HashCommon {
+    static final float LOAD_FACTOR = 0.6f;
+    static final int MIN_CAPACITY = 16;
+
+    private HashCommon() {
+    }
+
+    static int mix(long key) {
+        return KeyHash.mix(key);
+    }
+
+    static int mix(long first, long second) {
+        return KeyHash.mix(first, second);
+    }
+
+    static int tableSize(int expected) {
+        int size = Integer.highestOneBit(Math.max(MIN_CAPACITY, (int) Math.ceil(expected / LOAD_FACTOR)) - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalStateException("Превышен максимальный размер хеш-таблицы: " + expected);
+        }
+        return size;
+    }
+
+    static int maxFill(int capacity) {
+        return Math.min(capacity - 1, (int) Math.ceil(capacity * LOAD_FACTOR));
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.ewm.storage;
+
+@FunctionalInterface
+public interface LongDoubleConsumer {
+    void accept(long key, double value);
+}
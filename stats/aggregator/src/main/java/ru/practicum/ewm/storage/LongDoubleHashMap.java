@@ -0,0 +1,179 @@
+package ru.practicum.ewm.storage;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Хеш-таблица long → double с открытой адресацией и линейным пробированием.
+ * Ключи и значения лежат в примитивных массивах, поэтому запись не создаёт объектов.
+ * Ключ 0 используется как признак пустой ячейки и хранится отдельно.
+ */
+public class LongDoubleHashMap {
+    private static final long FREE_KEY = 0L;
+
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int maxFill;
+    private int size;
+
+    private boolean hasFreeKey;
+    private double freeValue;
+
+    public LongDoubleHashMap() {
+        this(HashCommon.MIN_CAPACITY);
+    }
+
+    public LongDoubleHashMap(int expectedSize) {
+        allocate(HashCommon.tableSize(expectedSize));
+    }
+
+    public double get(long key, double defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int pos = HashCommon.mix(key) & mask;
+        long current;
+        while ((current = keys[pos]) != FREE_KEY) {
+            if (current == key) {
+                return values[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        return find(key) >= 0;
+    }
+
+    public void put(long key, double value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue = value;
+            return;
+        }
+        int pos = find(key);
+        if (pos >= 0) {
+            values[pos] = value;
+            return;
+        }
+        insert(-pos - 1, key, value);
+    }
+
+    public double addTo(long key, double delta) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue += delta;
+            return freeValue;
+        }
+        int pos = find(key);
+        if (pos >= 0) {
+            values[pos] += delta;
+            return values[pos];
+        }
+        insert(-pos - 1, key, delta);
+        return delta;
+    }
+
+    public void removeIf(LongPredicate predicate) {
+        if (hasFreeKey && predicate.test(FREE_KEY)) {
+            hasFreeKey = false;
+            size--;
+        }
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        int survivors = hasFreeKey ? 1 : 0;
+        for (long key : oldKeys) {
+            if (key != FREE_KEY && !predicate.test(key)) {
+                survivors++;
+            }
+        }
+        allocate(HashCommon.tableSize(survivors));
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY && !predicate.test(key)) {
+                insert(-find(key) - 1, key, oldValues[i]);
+            }
+        }
+    }
+
+    public void scale(double factor) {
+        freeValue *= factor;
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(LongDoubleConsumer action) {
+        if (hasFreeKey) {
+            action.accept(FREE_KEY, freeValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public long memoryFootprint() {
+        return MemoryFootprint.array(keys) + MemoryFootprint.array(values) + MemoryFootprint.OBJECT_HEADER;
+    }
+
+    private int find(long key) {
+        int pos = HashCommon.mix(key) & mask;
+        long current;
+        while ((current = keys[pos]) != FREE_KEY) {
+            if (current == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -pos - 1;
+    }
+
+    private void insert(int pos, long key, double value) {
+        keys[pos] = key;
+        values[pos] = value;
+        if (++size >= maxFill) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int pos = HashCommon.mix(key) & mask;
+                while (keys[pos] != FREE_KEY) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos] = key;
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+        maxFill = HashCommon.maxFill(capacity);
+    }
+}
@@ -0,0 +1,202 @@
+package ru.practicum.ewm.storage;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Отображение long → список long с открытой адресацией по ключу.
+ * Значения каждого ключа хранятся в собственном растущем массиве без упаковки в объекты.
+ */
+public class LongListMultimap {
+    private static final long FREE_KEY = 0L;
+    private static final long[] EMPTY = new long[0];
+    private static final int INITIAL_LIST_CAPACITY = 4;
+
+    private long[] keys;
+    private long[][] lists;
+    private int[] sizes;
+    private int mask;
+    private int maxFill;
+    private int size;
+    private long valuesCount;
+
+    private long[] freeList = EMPTY;
+    private int freeSize;
+    private boolean hasFreeKey;
+
+    public LongListMultimap() {
+        this(HashCommon.MIN_CAPACITY);
+    }
+
+    public LongListMultimap(int expectedKeys) {
+        allocate(HashCommon.tableSize(expectedKeys));
+    }
+
+    public void add(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeList = ensureCapacity(freeList, freeSize + 1);
+            freeList[freeSize++] = value;
+            valuesCount++;
+            return;
+        }
+        int pos = find(key);
+        if (pos < 0) {
+            pos = -pos - 1;
+            keys[pos] = key;
+            lists[pos] = new long[INITIAL_LIST_CAPACITY];
+            sizes[pos] = 0;
+            if (++size >= maxFill) {
+                rehash(keys.length << 1);
+                pos = find(key);
+            }
+        }
+        lists[pos] = ensureCapacity(lists[pos], sizes[pos] + 1);
+        lists[pos][sizes[pos]++] = value;
+        valuesCount++;
+    }
+
+    public int size(long key) {
+        if (key == FREE_KEY) {
+            return freeSize;
+        }
+        int pos = find(key);
+        return pos >= 0 ? sizes[pos] : 0;
+    }
+
+    public void forEach(long key, LongConsumer action) {
+        long[] list;
+        int count;
+        if (key == FREE_KEY) {
+            list = freeList;
+            count = freeSize;
+        } else {
+            int pos = find(key);
+            if (pos < 0) {
+                return;
+            }
+            list = lists[pos];
+            count = sizes[pos];
+        }
+        for (int i = 0; i < count; i++) {
+            action.accept(list[i]);
+        }
+    }
+
+    public long[] toArray(long key) {
+        if (key == FREE_KEY) {
+            return Arrays.copyOf(freeList, freeSize);
+        }
+        int pos = find(key);
+        return pos >= 0 ? Arrays.copyOf(lists[pos], sizes[pos]) : EMPTY;
+    }
+
+    public void removeValues(LongPredicate predicate) {
+        freeSize = compact(freeList, freeSize, predicate);
+        if (hasFreeKey && freeSize == 0) {
+            hasFreeKey = false;
+            size--;
+        }
+        long[] oldKeys = keys;
+        long[][] oldLists = lists;
+        int[] oldSizes = sizes;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                oldSizes[i] = compact(oldLists[i], oldSizes[i], predicate);
+            }
+        }
+        allocate(keys.length);
+        size = hasFreeKey ? 1 : 0;
+        valuesCount = freeSize;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY && oldSizes[i] > 0) {
+                int pos = -find(key) - 1;
+                keys[pos] = key;
+                lists[pos] = oldLists[i];
+                sizes[pos] = oldSizes[i];
+                size++;
+                valuesCount += oldSizes[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long valuesCount() {
+        return valuesCount;
+    }
+
+    public long memoryFootprint() {
+        long bytes = MemoryFootprint.array(keys) + MemoryFootprint.array(sizes) + MemoryFootprint.array(lists)
+                + MemoryFootprint.array(freeList) + MemoryFootprint.OBJECT_HEADER;
+        for (long[] list : lists) {
+            if (list != null) {
+                bytes += MemoryFootprint.array(list);
+            }
+        }
+        return bytes;
+    }
+
+    private static int compact(long[] list, int count, LongPredicate predicate) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (!predicate.test(list[i])) {
+                list[kept++] = list[i];
+            }
+        }
+        return kept;
+    }
+
+    private static long[] ensureCapacity(long[] list, int required) {
+        if (list.length >= required) {
+            return list;
+        }
+        return Arrays.copyOf(list, Math.max(required, Math.max(INITIAL_LIST_CAPACITY, list.length << 1)));
+    }
+
+    private int find(long key) {
+        int pos = HashCommon.mix(key) & mask;
+        long current;
+        while ((current = keys[pos]) != FREE_KEY) {
+            if (current == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -pos - 1;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        long[][] oldLists = lists;
+        int[] oldSizes = sizes;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int pos = HashCommon.mix(key) & mask;
+                while (keys[pos] != FREE_KEY) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos] = key;
+                lists[pos] = oldLists[i];
+                sizes[pos] = oldSizes[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        lists = new long[capacity][];
+        sizes = new int[capacity];
+        mask = capacity - 1;
+        maxFill = HashCommon.maxFill(capacity);
+    }
+}
@@ -0,0 +1,133 @@
+package ru.practicum.ewm.storage;
+
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+
+/**
+ * Хеш-таблица long → объект с открытой адресацией: ключи хранятся без упаковки в Long.
+ * Ключ 0 используется как признак пустой ячейки и хранится отдельно.
+ */
+public class LongObjectHashMap<V> {
+    private static final long FREE_KEY = 0L;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int maxFill;
+    private int size;
+
+    private V freeValue;
+
+    public LongObjectHashMap() {
+        this(HashCommon.MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(HashCommon.tableSize(expectedSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE_KEY) {
+            return freeValue;
+        }
+        int pos = find(key);
+        return pos >= 0 ? (V) values[pos] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        if (key == FREE_KEY) {
+            if (freeValue == null) {
+                freeValue = factory.apply(key);
+                size++;
+            }
+            return freeValue;
+        }
+        int pos = find(key);
+        if (pos >= 0) {
+            return (V) values[pos];
+        }
+        V value = factory.apply(key);
+        pos = -pos - 1;
+        keys[pos] = key;
+        values[pos] = value;
+        if (++size >= maxFill) {
+            rehash(keys.length << 1);
+        }
+        return value;
+    }
+
+    public void removeIf(LongPredicate predicate) {
+        if (freeValue != null && predicate.test(FREE_KEY)) {
+            freeValue = null;
+            size--;
+        }
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length);
+        size = freeValue != null ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY && !predicate.test(key)) {
+                int pos = -find(key) - 1;
+                keys[pos] = key;
+                values[pos] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action) {
+        if (freeValue != null) {
+            action.accept(freeValue);
+        }
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int pos = HashCommon.mix(key) & mask;
+        long current;
+        while ((current = keys[pos]) != FREE_KEY) {
+            if (current == key) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -pos - 1;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int pos = HashCommon.mix(key) & mask;
+                while (keys[pos] != FREE_KEY) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos] = key;
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        maxFill = HashCommon.maxFill(capacity);
+    }
+}
@@ -0,0 +1,6 @@
+package ru.practicum.ewm.storage;
+
+@FunctionalInterface
+public interface LongPairDoubleConsumer {
+    void accept(long first, long second, double value);
+}
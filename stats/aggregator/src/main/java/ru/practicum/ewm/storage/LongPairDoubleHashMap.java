@@ -0,0 +1,192 @@
+package ru.practicum.ewm.storage;
+
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица (long, long) → double с открытой адресацией.
+ * Обе части ключа упакованы подряд в один массив long, значения — в параллельный массив double.
+ * Пара (0, 0) используется как признак пустой ячейки и хранится отдельно.
+ */
+public class LongPairDoubleHashMap {
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int maxFill;
+    private int size;
+
+    private boolean hasFreeKey;
+    private double freeValue;
+
+    public LongPairDoubleHashMap() {
+        this(HashCommon.MIN_CAPACITY);
+    }
+
+    public LongPairDoubleHashMap(int expectedSize) {
+        allocate(HashCommon.tableSize(expectedSize));
+    }
+
+    public double get(long first, long second, double defaultValue) {
+        if (isFree(first, second)) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int pos = find(first, second);
+        return pos >= 0 ? values[pos] : defaultValue;
+    }
+
+    public boolean containsKey(long first, long second) {
+        if (isFree(first, second)) {
+            return hasFreeKey;
+        }
+        return find(first, second) >= 0;
+    }
+
+    public void put(long first, long second, double value) {
+        if (isFree(first, second)) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue = value;
+            return;
+        }
+        int pos = find(first, second);
+        if (pos >= 0) {
+            values[pos] = value;
+            return;
+        }
+        insert(-pos - 1, first, second, value);
+    }
+
+    public double addTo(long first, long second, double delta) {
+        if (isFree(first, second)) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue += delta;
+            return freeValue;
+        }
+        int pos = find(first, second);
+        if (pos >= 0) {
+            values[pos] += delta;
+            return values[pos];
+        }
+        insert(-pos - 1, first, second, delta);
+        return delta;
+    }
+
+    public void removeIf(LongPairPredicate predicate) {
+        if (hasFreeKey && predicate.test(0L, 0L)) {
+            hasFreeKey = false;
+            size--;
+        }
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        int survivors = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            long first = oldKeys[i << 1];
+            long second = oldKeys[(i << 1) + 1];
+            if (!isFree(first, second) && !predicate.test(first, second)) {
+                survivors++;
+            }
+        }
+        allocate(HashCommon.tableSize(survivors));
+        size = hasFreeKey ? 1 : 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            long first = oldKeys[i << 1];
+            long second = oldKeys[(i << 1) + 1];
+            if (!isFree(first, second) && !predicate.test(first, second)) {
+                insert(-find(first, second) - 1, first, second, oldValues[i]);
+            }
+        }
+    }
+
+    public void scale(double factor) {
+        freeValue *= factor;
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        hasFreeKey = false;
+        freeValue = 0;
+        size = 0;
+    }
+
+    public void forEach(LongPairDoubleConsumer action) {
+        if (hasFreeKey) {
+            action.accept(0L, 0L, freeValue);
+        }
+        for (int i = 0; i < values.length; i++) {
+            long first = keys[i << 1];
+            long second = keys[(i << 1) + 1];
+            if (!isFree(first, second)) {
+                action.accept(first, second, values[i]);
+            }
+        }
+    }
+
+    public long memoryFootprint() {
+        return MemoryFootprint.array(keys) + MemoryFootprint.array(values) + MemoryFootprint.OBJECT_HEADER;
+    }
+
+    private static boolean isFree(long first, long second) {
+        return first == 0L && second == 0L;
+    }
+
+    private int find(long first, long second) {
+        int pos = HashCommon.mix(first, second) & mask;
+        while (true) {
+            long currentFirst = keys[pos << 1];
+            long currentSecond = keys[(pos << 1) + 1];
+            if (isFree(currentFirst, currentSecond)) {
+                return -pos - 1;
+            }
+            if (currentFirst == first && currentSecond == second) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private void insert(int pos, long first, long second, double value) {
+        keys[pos << 1] = first;
+        keys[(pos << 1) + 1] = second;
+        values[pos] = value;
+        if (++size >= maxFill) {
+            rehash(values.length << 1);
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            long first = oldKeys[i << 1];
+            long second = oldKeys[(i << 1) + 1];
+            if (!isFree(first, second)) {
+                int pos = HashCommon.mix(first, second) & mask;
+                while (!isFree(keys[pos << 1], keys[(pos << 1) + 1])) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos << 1] = first;
+                keys[(pos << 1) + 1] = second;
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity << 1];
+        values = new double[capacity];
+        mask = capacity - 1;
+        maxFill = HashCommon.maxFill(capacity);
+    }
+}
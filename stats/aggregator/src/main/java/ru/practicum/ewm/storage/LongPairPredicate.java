@@ -0,0 +1,6 @@
+package ru.practicum.ewm.storage;
+
+@FunctionalInterface
+public interface LongPairPredicate {
+    boolean test(long first, long second);
+}
@@ -0,0 +1,26 @@
+package ru.practicum.ewm.storage;
+
+final class MemoryFootprint {
+    static final long OBJECT_HEADER = 16;
+    private static final long ARRAY_HEADER = 16;
+    private static final long REFERENCE = 4;
+
+    private MemoryFootprint() {
+    }
+
+    static long array(long[] array) {
+        return ARRAY_HEADER + (long) array.length * Long.BYTES;
+    }
+
+    static long array(int[] array) {
+        return ARRAY_HEADER + (long) array.length * Integer.BYTES;
+    }
+
+    static long array(Object[] array) {
+        return ARRAY_HEADER + (long) array.length * REFERENCE;
+    }
+
+    static long array(double[] array) {
+        return ARRAY_HEADER + (long) array.length * Double.BYTES;
+    }
+}
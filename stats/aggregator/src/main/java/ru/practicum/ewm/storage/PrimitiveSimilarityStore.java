@@ -0,0 +1,123 @@
+package ru.practicum.ewm.storage;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+public class PrimitiveSimilarityStore implements SimilarityStore {
+    private final LongPairDoubleHashMap eventWeights = new LongPairDoubleHashMap();
+    private final LongDoubleHashMap eventSummaryWeights = new LongDoubleHashMap();
+    private final LongPairDoubleHashMap eventMinSummaryWeights = new LongPairDoubleHashMap();
+    private final LongListMultimap userEvents = new LongListMultimap();
+    private final LongDoubleHashMap eventActivity = new LongDoubleHashMap();
+
+    @Override
+    public double getWeight(long eventId, long userId) {
+        return eventWeights.get(eventId, userId, 0.0);
+    }
+
+    @Override
+    public boolean containsWeight(long eventId, long userId) {
+        return eventWeights.containsKey(eventId, userId);
+    }
+
+    @Override
+    public void putWeight(long eventId, long userId, double weight) {
+        if (!eventWeights.containsKey(eventId, userId)) {
+            userEvents.add(userId, eventId);
+        }
+        eventWeights.put(eventId, userId, weight);
+    }
+
+    @Override
+    public double getEventSum(long eventId) {
+        return eventSummaryWeights.get(eventId, 0.0);
+    }
+
+    @Override
+    public double addEventSum(long eventId, double delta) {
+        return eventSummaryWeights.addTo(eventId, delta);
+    }
+
+    @Override
+    public double getMinSum(long eventA, long eventB) {
+        return eventMinSummaryWeights.get(Math.min(eventA, eventB), Math.max(eventA, eventB), 0.0);
+    }
+
+    @Override
+    public double addMinSum(long eventA, long eventB, double delta) {
+        return eventMinSummaryWeights.addTo(Math.min(eventA, eventB), Math.max(eventA, eventB), delta);
+    }
+
+    @Override
+    public Object pairLock(long eventA, long eventB) {
+        return null;
+    }
+
+    @Override
+    public void forEachUserEvent(long userId, LongConsumer action) {
+        userEvents.forEach(userId, action);
+    }
+
+    @Override
+    public int countUserEvents(long userId) {
+        return userEvents.size(userId);
+    }
+
+    @Override
+    public void touchEvent(long eventId, long timestamp) {
+        if (eventActivity.get(eventId, Double.NEGATIVE_INFINITY) < timestamp) {
+            eventActivity.put(eventId, timestamp);
+        }
+    }
+
+    @Override
+    public void removeEvents(LongPredicate evicted) {
+        eventWeights.removeIf((eventId, userId) -> evicted.test(eventId));
+        eventSummaryWeights.removeIf(evicted);
+        eventMinSummaryWeights.removeIf((eventA, eventB) -> evicted.test(eventA) || evicted.test(eventB));
+        userEvents.removeValues(evicted);
+        eventActivity.removeIf(evicted);
+    }
+
+    @Override
+    public void scale(double factor) {
+        eventWeights.scale(factor);
+        eventSummaryWeights.scale(factor);
+        eventMinSummaryWeights.scale(factor);
+    }
+
+    long[] getUserEvents(long userId) {
+        return userEvents.toArray(userId);
+    }
+
+    @Override
+    public void forEachWeight(LongPairDoubleConsumer action) {
+        eventWeights.forEach(action);
+    }
+
+    @Override
+    public void forEachEventSum(LongDoubleConsumer action) {
+        eventSummaryWeights.forEach(action);
+    }
+
+    @Override
+    public void forEachMinSum(LongPairDoubleConsumer action) {
+        eventMinSummaryWeights.forEach(action);
+    }
+
+    @Override
+    public void forEachEventActivity(LongDoubleConsumer action) {
+        eventActivity.forEach(action);
+    }
+
+    @Override
+    public StoreFootprint footprint() {
+        long bytes = eventWeights.memoryFootprint()
+                + eventSummaryWeights.memoryFootprint()
+                + eventMinSummaryWeights.memoryFootprint()
+                + userEvents.memoryFootprint()
+                + eventActivity.memoryFootprint();
+        return new StoreFootprint(eventWeights.size(), eventSummaryWeights.size(), eventMinSummaryWeights.size(),
+                userEvents.size(), eventActivity.size(), bytes);
+    }
+}
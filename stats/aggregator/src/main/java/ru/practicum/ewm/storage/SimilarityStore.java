@@ -0,0 +1,47 @@
+package ru.practicum.ewm.storage;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+public interface SimilarityStore {
+
+    double getWeight(long eventId, long userId);
+
+    boolean containsWeight(long eventId, long userId);
+
+    void putWeight(long eventId, long userId, double weight);
+
+    double getEventSum(long eventId);
+
+    double addEventSum(long eventId, double delta);
+
+    double getMinSum(long eventA, long eventB);
+
+    double addMinSum(long eventA, long eventB, double delta);
+
+    /**
+     * Монитор пары, под которым её сходство пересчитывается и передаётся дальше, чтобы последнее отправленное
+     * сходство пары было и самым свежим. {@code null}, если хранилище обновляется одним потоком.
+     */
+    Object pairLock(long eventA, long eventB);
+
+    void forEachUserEvent(long userId, LongConsumer action);
+
+    int countUserEvents(long userId);
+
+    void touchEvent(long eventId, long timestamp);
+
+    void removeEvents(LongPredicate evicted);
+
+    void scale(double factor);
+
+    void forEachWeight(LongPairDoubleConsumer action);
+
+    void forEachEventSum(LongDoubleConsumer action);
+
+    void forEachMinSum(LongPairDoubleConsumer action);
+
+    void forEachEventActivity(LongDoubleConsumer action);
+
+    StoreFootprint footprint();
+}
@@ -0,0 +1,18 @@
+package ru.practicum.ewm.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SimilarityStoreConfig {
+
+    @Bean
+    public SimilarityStore similarityStore(@Value("${aggregator.parallel.workers:1}") int workers,
+                                           @Value("${aggregator.parallel.segments:64}") int segments) {
+        if (workers > 1) {
+            return new StripedSimilarityStore(segments);
+        }
+        return new PrimitiveSimilarityStore();
+    }
+}
@@ -0,0 +1,9 @@
+package ru.practicum.ewm.storage;
+
+public record StoreFootprint(int weights, int events, int pairs, int users, int activities, long bytes) {
+
+    public StoreFootprint plus(StoreFootprint other) {
+        return new StoreFootprint(weights + other.weights, events + other.events, pairs + other.pairs,
+                users + other.users, activities + other.activities, bytes + other.bytes);
+    }
+}
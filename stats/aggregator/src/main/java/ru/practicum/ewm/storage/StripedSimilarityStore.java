@@ -0,0 +1,193 @@
+package ru.practicum.ewm.storage;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Потокобезопасное хранилище, разбитое на сегменты со своими блокировками.
+ * Веса и индекс событий пользователя лежат в сегменте пользователя, суммы события — в сегменте события,
+ * суммы минимумов — в сегменте пары, поэтому обновления разных пользователей и пар не конкурируют.
+ * Мониторы {@link #pairLock} отделены от сегментов: под ними берутся блокировки сегментов, но не наоборот.
+ */
+public class StripedSimilarityStore implements SimilarityStore {
+    private final PrimitiveSimilarityStore[] segments;
+    private final Object[] pairLocks;
+    private final int mask;
+
+    public StripedSimilarityStore(int segmentsCount) {
+        int size = Integer.highestOneBit(Math.max(1, segmentsCount - 1)) << 1;
+        segments = new PrimitiveSimilarityStore[size];
+        pairLocks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new PrimitiveSimilarityStore();
+            pairLocks[i] = new Object();
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public double getWeight(long eventId, long userId) {
+        PrimitiveSimilarityStore segment = segment(userId);
+        synchronized (segment) {
+            return segment.getWeight(eventId, userId);
+        }
+    }
+
+    @Override
+    public boolean containsWeight(long eventId, long userId) {
+        PrimitiveSimilarityStore segment = segment(userId);
+        synchronized (segment) {
+            return segment.containsWeight(eventId, userId);
+        }
+    }
+
+    @Override
+    public void putWeight(long eventId, long userId, double weight) {
+        PrimitiveSimilarityStore segment = segment(userId);
+        synchronized (segment) {
+            segment.putWeight(eventId, userId, weight);
+        }
+    }
+
+    @Override
+    public double getEventSum(long eventId) {
+        PrimitiveSimilarityStore segment = segment(eventId);
+        synchronized (segment) {
+            return segment.getEventSum(eventId);
+        }
+    }
+
+    @Override
+    public double addEventSum(long eventId, double delta) {
+        PrimitiveSimilarityStore segment = segment(eventId);
+        synchronized (segment) {
+            return segment.addEventSum(eventId, delta);
+        }
+    }
+
+    @Override
+    public double getMinSum(long eventA, long eventB) {
+        PrimitiveSimilarityStore segment = segment(eventA, eventB);
+        synchronized (segment) {
+            return segment.getMinSum(eventA, eventB);
+        }
+    }
+
+    @Override
+    public double addMinSum(long eventA, long eventB, double delta) {
+        PrimitiveSimilarityStore segment = segment(eventA, eventB);
+        synchronized (segment) {
+            return segment.addMinSum(eventA, eventB, delta);
+        }
+    }
+
+    @Override
+    public Object pairLock(long eventA, long eventB) {
+        return pairLocks[pairIndex(eventA, eventB)];
+    }
+
+    @Override
+    public void forEachUserEvent(long userId, LongConsumer action) {
+        PrimitiveSimilarityStore segment = segment(userId);
+        long[] events;
+        synchronized (segment) {
+            events = segment.getUserEvents(userId);
+        }
+        for (long eventId : events) {
+            action.accept(eventId);
+        }
+    }
+
+    @Override
+    public int countUserEvents(long userId) {
+        PrimitiveSimilarityStore segment = segment(userId);
+        synchronized (segment) {
+            return segment.countUserEvents(userId);
+        }
+    }
+
+    @Override
+    public void touchEvent(long eventId, long timestamp) {
+        PrimitiveSimilarityStore segment = segment(eventId);
+        synchronized (segment) {
+            segment.touchEvent(eventId, timestamp);
+        }
+    }
+
+    @Override
+    public void removeEvents(LongPredicate evicted) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.removeEvents(evicted);
+            }
+        }
+    }
+
+    @Override
+    public void scale(double factor) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.scale(factor);
+            }
+        }
+    }
+
+    @Override
+    public void forEachWeight(LongPairDoubleConsumer action) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.forEachWeight(action);
+            }
+        }
+    }
+
+    @Override
+    public void forEachEventSum(LongDoubleConsumer action) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.forEachEventSum(action);
+            }
+        }
+    }
+
+    @Override
+    public void forEachMinSum(LongPairDoubleConsumer action) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.forEachMinSum(action);
+            }
+        }
+    }
+
+    @Override
+    public void forEachEventActivity(LongDoubleConsumer action) {
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                segment.forEachEventActivity(action);
+            }
+        }
+    }
+
+    @Override
+    public StoreFootprint footprint() {
+        StoreFootprint footprint = new StoreFootprint(0, 0, 0, 0, 0, 0);
+        for (PrimitiveSimilarityStore segment : segments) {
+            synchronized (segment) {
+                footprint = footprint.plus(segment.footprint());
+            }
+        }
+        return footprint;
+    }
+
+    private PrimitiveSimilarityStore segment(long key) {
+        return segments[HashCommon.mix(key) & mask];
+    }
+
+    private PrimitiveSimilarityStore segment(long eventA, long eventB) {
+        return segments[pairIndex(eventA, eventB)];
+    }
+
+    private int pairIndex(long eventA, long eventB) {
+        return HashCommon.mix(Math.min(eventA, eventB), Math.max(eventA, eventB)) & mask;
+    }
+}
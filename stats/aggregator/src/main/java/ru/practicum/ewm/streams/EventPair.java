@@ -0,0 +1,16 @@
+package ru.practicum.ewm.streams;
+
+public record EventPair(long first, long second) {
+
+    public static EventPair ordered(long eventA, long eventB) {
+        return new EventPair(Math.min(eventA, eventB), Math.max(eventA, eventB));
+    }
+
+    public static EventPair self(long eventId) {
+        return new EventPair(eventId, eventId);
+    }
+
+    public boolean isSelf() {
+        return first == second;
+    }
+}
@@ -0,0 +1,35 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+/**
+ * Владелец суммы весов события. Дельта самой суммы применяется к хранилищу, дельта пары уходит
+ * к владельцу второго события вместе с текущей суммой: дельта суммы того же действия пришла раньше
+ * по той же партиции, поэтому сумма уже учитывает его.
+ */
+public class EventSumProcessor implements Processor<Long, SumDelta, Long, PartnerDelta> {
+    private ProcessorContext<Long, PartnerDelta> context;
+    private KeyValueStore<Long, Double> eventSums;
+
+    @Override
+    public void init(ProcessorContext<Long, PartnerDelta> context) {
+        this.context = context;
+        eventSums = context.getStateStore(SimilarityTopology.EVENT_SUMS_STORE);
+    }
+
+    @Override
+    public void process(Record<Long, SumDelta> record) {
+        SumDelta delta = record.value();
+        Double stored = eventSums.get(delta.eventId());
+        double sum = stored == null ? 0.0 : stored;
+        if (delta.isSelf()) {
+            eventSums.put(delta.eventId(), sum + delta.delta());
+            return;
+        }
+        context.forward(new Record<>(delta.partnerId(),
+                new PartnerDelta(delta.eventId(), delta.partnerId(), delta.delta(), sum), record.timestamp()));
+    }
+}
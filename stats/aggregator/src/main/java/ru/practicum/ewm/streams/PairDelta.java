@@ -0,0 +1,7 @@
+package ru.practicum.ewm.streams;
+
+/**
+ * Приращение суммы минимумов пары и суммы весов обоих её событий в порядке ключа {@link EventPair}.
+ */
+public record PairDelta(double delta, double firstSum, double secondSum) {
+}
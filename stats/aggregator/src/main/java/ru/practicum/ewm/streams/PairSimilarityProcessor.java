@@ -0,0 +1,44 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+/**
+ * Владелец суммы минимумов пары: применяет дельту и отправляет сходство по суммам весов событий,
+ * пришедшим вместе с ней. На каждую дельту — ровно одно сходство.
+ */
+public class PairSimilarityProcessor implements Processor<EventPair, PairDelta, EventPair, Double> {
+    private ProcessorContext<EventPair, Double> context;
+    private KeyValueStore<EventPair, Double> minSums;
+
+    @Override
+    public void init(ProcessorContext<EventPair, Double> context) {
+        this.context = context;
+        minSums = context.getStateStore(SimilarityTopology.MIN_SUMS_STORE);
+    }
+
+    @Override
+    public void process(Record<EventPair, PairDelta> record) {
+        PairDelta delta = record.value();
+        Double stored = minSums.get(record.key());
+        double minSum = stored == null ? 0.0 : stored;
+        if (delta.delta() != 0) {
+            minSum += delta.delta();
+            minSums.put(record.key(), minSum);
+        }
+        if (delta.firstSum() <= 0 || delta.secondSum() <= 0) {
+            // сумма события ещё не дошла до владельца: пара пересчитается на следующем действии
+            return;
+        }
+        context.forward(record.withValue(similarity(minSum, delta.firstSum(), delta.secondSum())));
+    }
+
+    private static double similarity(double minSum, double sumA, double sumB) {
+        if (minSum == 0) {
+            return 0;
+        }
+        return minSum / (Math.sqrt(sumA) * Math.sqrt(sumB));
+    }
+}
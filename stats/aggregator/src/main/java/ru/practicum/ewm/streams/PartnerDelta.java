@@ -0,0 +1,7 @@
+package ru.practicum.ewm.streams;
+
+/**
+ * Приращение суммы минимумов пары вместе с суммой весов события {@code eventId}, прочитанной у его владельца.
+ */
+public record PartnerDelta(long eventId, long partnerId, double delta, double eventSum) {
+}
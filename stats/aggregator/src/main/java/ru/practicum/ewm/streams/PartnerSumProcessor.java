@@ -0,0 +1,33 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+/**
+ * Добавляет к дельте пары сумму весов второго события, читая её из того же хранилища, что и
+ * {@link EventSumProcessor}, и отправляет дельту владельцу пары.
+ */
+public class PartnerSumProcessor implements Processor<Long, PartnerDelta, EventPair, PairDelta> {
+    private ProcessorContext<EventPair, PairDelta> context;
+    private KeyValueStore<Long, Double> eventSums;
+
+    @Override
+    public void init(ProcessorContext<EventPair, PairDelta> context) {
+        this.context = context;
+        eventSums = context.getStateStore(SimilarityTopology.EVENT_SUMS_STORE);
+    }
+
+    @Override
+    public void process(Record<Long, PartnerDelta> record) {
+        PartnerDelta delta = record.value();
+        Double stored = eventSums.get(delta.partnerId());
+        double partnerSum = stored == null ? 0.0 : stored;
+        EventPair pair = EventPair.ordered(delta.eventId(), delta.partnerId());
+        PairDelta pairDelta = pair.first() == delta.eventId()
+                ? new PairDelta(delta.delta(), delta.eventSum(), partnerSum)
+                : new PairDelta(delta.delta(), partnerSum, delta.eventSum());
+        context.forward(new Record<>(pair, pairDelta, record.timestamp()));
+    }
+}
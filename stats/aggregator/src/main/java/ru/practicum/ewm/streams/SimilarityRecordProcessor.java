@@ -0,0 +1,28 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.streams.processor.api.FixedKeyProcessor;
+import org.apache.kafka.streams.processor.api.FixedKeyProcessorContext;
+import org.apache.kafka.streams.processor.api.FixedKeyRecord;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+
+import java.time.Instant;
+
+public class SimilarityRecordProcessor implements FixedKeyProcessor<EventPair, Double, EventSimilarityAvro> {
+    private FixedKeyProcessorContext<EventPair, EventSimilarityAvro> context;
+
+    @Override
+    public void init(FixedKeyProcessorContext<EventPair, EventSimilarityAvro> context) {
+        this.context = context;
+    }
+
+    @Override
+    public void process(FixedKeyRecord<EventPair, Double> record) {
+        EventSimilarityAvro similarity = EventSimilarityAvro.newBuilder()
+                .setEventA(record.key().first())
+                .setEventB(record.key().second())
+                .setScore(record.value())
+                .setTimestamp(Instant.ofEpochMilli(record.timestamp()))
+                .build();
+        context.forward(record.withValue(similarity));
+    }
+}
@@ -0,0 +1,71 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.Repartitioned;
+import org.apache.kafka.streams.state.Stores;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.util.Collection;
+
+/**
+ * Топология агрегатора на Kafka Streams.
+ * <ol>
+ *     <li>Действия перераспределяются по userId, веса пользователя хранятся в локальном хранилище
+ *     {@value #WEIGHTS_STORE} и превращаются в дельты с ключом события из действия.</li>
+ *     <li>Владелец события применяет дельту суммы его весов ({@value #EVENT_SUMS_STORE}) и отправляет
+ *     дельты пар владельцам вторых событий, а те — владельцам пар вместе с суммами весов обоих событий.</li>
+ *     <li>Владелец пары применяет дельту суммы минимумов ({@value #MIN_SUMS_STORE}) и пишет сходство
+ *     в выходной топик.</li>
+ * </ol>
+ * Как и цикловой движок, топология пересчитывает на действие только пары события с остальными событиями
+ * того же пользователя. Изменение суммы весов события не рассылается всем его парам: сходство остальных
+ * пар обновится, когда изменится их сумма минимумов. Сумма второго события читается из другой
+ * партиции, поэтому при отставании она может не учитывать последние действия с ним.
+ * Все хранилища персистентные и имеют changelog-топики, поэтому экземпляры масштабируются по партициям
+ * и восстанавливают состояние после перезапуска.
+ */
+public final class SimilarityTopology {
+    public static final String WEIGHTS_STORE = "user-event-weights";
+    public static final String EVENT_SUMS_STORE = "event-sums";
+    public static final String MIN_SUMS_STORE = "min-sums";
+
+    private SimilarityTopology() {
+    }
+
+    public static Topology build(Collection<String> userActionsTopics, String eventsSimilarityTopic) {
+        Serde<EventPair> pairSerde = StreamsSerdes.eventPair();
+        Serde<UserActionAvro> actionSerde = StreamsSerdes.userAction();
+
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(WEIGHTS_STORE), pairSerde, Serdes.Double()));
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(EVENT_SUMS_STORE), Serdes.Long(), Serdes.Double()));
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(MIN_SUMS_STORE), pairSerde, Serdes.Double()));
+
+        builder
+                .stream(userActionsTopics, Consumed.with(Serdes.ByteArray(), actionSerde))
+                .selectKey((key, action) -> action.getUserId())
+                .repartition(Repartitioned.with(Serdes.Long(), actionSerde).withName("actions-by-user"))
+                .process(UserWeightsProcessor::new, WEIGHTS_STORE)
+                .repartition(Repartitioned.with(Serdes.Long(), StreamsSerdes.sumDelta()).withName("sum-deltas"))
+                .process(EventSumProcessor::new, EVENT_SUMS_STORE)
+                .repartition(Repartitioned.with(Serdes.Long(), StreamsSerdes.partnerDelta())
+                        .withName("partner-deltas"))
+                .process(PartnerSumProcessor::new, EVENT_SUMS_STORE)
+                .repartition(Repartitioned.with(pairSerde, StreamsSerdes.pairDelta()).withName("pair-deltas"))
+                .process(PairSimilarityProcessor::new, MIN_SUMS_STORE)
+                .processValues(SimilarityRecordProcessor::new)
+                .map((pair, similarity) -> KeyValue.pair((Void) null, similarity))
+                .to(eventsSimilarityTopic, Produced.with(Serdes.Void(), StreamsSerdes.eventSimilarity()));
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.practicum.ewm.streams;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.errors.StreamsUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.lane.LaneScheduler;
+import ru.practicum.ewm.serializer.TopicFormat;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+@Slf4j
+@Component
+public class StreamsAggregation {
+    @Value("${kafka.bootstrap-servers}")
+    private String bootstrapServers;
+    @Value("${topics.user-actions}")
+    private String userActionsTopic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.events-similarity}")
+    private String eventsSimilarityTopic;
+    @Value("${topics.formats.user-actions:SINGLE}")
+    private TopicFormat actionsFormat;
+    @Value("${topics.formats.events-similarity:SINGLE}")
+    private TopicFormat similarityFormat;
+    @Value("${aggregator.streams.application-id:aggregator-streams}")
+    private String applicationId;
+    @Value("${aggregator.streams.state-dir:/tmp/aggregator-streams}")
+    private String stateDir;
+    @Value("${aggregator.streams.threads:1}")
+    private int threads;
+    @Value("${aggregator.streams.processing-guarantee:at_least_once}")
+    private String processingGuarantee;
+
+    public void start() {
+        if (actionsFormat != TopicFormat.SINGLE || similarityFormat != TopicFormat.SINGLE) {
+            throw new IllegalStateException("Агрегатор на Kafka Streams поддерживает только формат SINGLE");
+        }
+        Topology topology = SimilarityTopology.build(
+                new LaneScheduler(userActionsTopic, priorityTopic, 0).topics(), eventsSimilarityTopic);
+        log.info("Старт агрегатора на Kafka Streams: {}", topology.describe());
+
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir);
+        config.put(StreamsConfig.NUM_STREAM_THREADS_CONFIG, threads);
+        config.put(StreamsConfig.PROCESSING_GUARANTEE_CONFIG, processingGuarantee);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        KafkaStreams streams = new KafkaStreams(topology, config);
+        streams.setUncaughtExceptionHandler(e -> {
+            log.error("Ошибка в потоке Kafka Streams", e);
+            return StreamsUncaughtExceptionHandler.StreamThreadExceptionResponse.SHUTDOWN_CLIENT;
+        });
+        streams.setStateListener((newState, oldState) -> {
+            log.info("Состояние Kafka Streams: {} -> {}", oldState, newState);
+            if (newState == KafkaStreams.State.NOT_RUNNING || newState == KafkaStreams.State.ERROR) {
+                stopped.countDown();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(streams::close));
+
+        streams.start();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            log.info("Закрываем Kafka Streams");
+            streams.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import ru.practicum.ewm.serializer.EventSimilarityDeserializer;
+import ru.practicum.ewm.serializer.GeneralAvroSerializer;
+import ru.practicum.ewm.serializer.UserActionDeserializer;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.nio.ByteBuffer;
+
+public final class StreamsSerdes {
+
+    private StreamsSerdes() {
+    }
+
+    public static Serde<UserActionAvro> userAction() {
+        GeneralAvroSerializer serializer = new GeneralAvroSerializer();
+        return Serdes.serdeFrom(serializer::serialize, new UserActionDeserializer());
+    }
+
+    public static Serde<EventSimilarityAvro> eventSimilarity() {
+        GeneralAvroSerializer serializer = new GeneralAvroSerializer();
+        return Serdes.serdeFrom(serializer::serialize, new EventSimilarityDeserializer());
+    }
+
+    public static Serde<EventPair> eventPair() {
+        Serializer<EventPair> serializer = (topic, pair) -> pair == null ? null : ByteBuffer.allocate(16)
+                .putLong(pair.first())
+                .putLong(pair.second())
+                .array();
+        Deserializer<EventPair> deserializer = (topic, data) -> {
+            if (data == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new EventPair(buffer.getLong(), buffer.getLong());
+        };
+        return Serdes.serdeFrom(serializer, deserializer);
+    }
+
+    public static Serde<SumDelta> sumDelta() {
+        Serializer<SumDelta> serializer = (topic, delta) -> delta == null ? null : ByteBuffer.allocate(24)
+                .putLong(delta.eventId())
+                .putLong(delta.partnerId())
+                .putDouble(delta.delta())
+                .array();
+        Deserializer<SumDelta> deserializer = (topic, data) -> {
+            if (data == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new SumDelta(buffer.getLong(), buffer.getLong(), buffer.getDouble());
+        };
+        return Serdes.serdeFrom(serializer, deserializer);
+    }
+
+    public static Serde<PartnerDelta> partnerDelta() {
+        Serializer<PartnerDelta> serializer = (topic, delta) -> delta == null ? null : ByteBuffer.allocate(32)
+                .putLong(delta.eventId())
+                .putLong(delta.partnerId())
+                .putDouble(delta.delta())
+                .putDouble(delta.eventSum())
+                .array();
+        Deserializer<PartnerDelta> deserializer = (topic, data) -> {
+            if (data == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new PartnerDelta(buffer.getLong(), buffer.getLong(), buffer.getDouble(), buffer.getDouble());
+        };
+        return Serdes.serdeFrom(serializer, deserializer);
+    }
+
+    public static Serde<PairDelta> pairDelta() {
+        Serializer<PairDelta> serializer = (topic, delta) -> delta == null ? null : ByteBuffer.allocate(24)
+                .putDouble(delta.delta())
+                .putDouble(delta.firstSum())
+                .putDouble(delta.secondSum())
+                .array();
+        Deserializer<PairDelta> deserializer = (topic, data) -> {
+            if (data == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new PairDelta(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+        };
+        return Serdes.serdeFrom(serializer, deserializer);
+    }
+}
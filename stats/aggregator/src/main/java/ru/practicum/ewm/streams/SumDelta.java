@@ -0,0 +1,12 @@
+package ru.practicum.ewm.streams;
+
+/**
+ * Приращение от действия с событием {@code eventId}: суммы его весов, если {@code partnerId} совпадает
+ * с {@code eventId}, иначе суммы минимумов пары с событием {@code partnerId} (в том числе нулевое).
+ */
+public record SumDelta(long eventId, long partnerId, double delta) {
+
+    public boolean isSelf() {
+        return eventId == partnerId;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import ru.practicum.ewm.service.ActionWeights;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+/**
+ * Хранит веса событий пользователя (ключ хранилища — пара userId, eventId) и на каждое повышение веса
+ * отправляет дальше дельты с ключом события из действия: сначала для суммы его весов, затем для сумм
+ * минимумов пар с остальными событиями пользователя. Нулевые дельты пар тоже отправляются: сумма весов
+ * события изменилась, и сходство этих пар пересчитывается так же, как в цикловом движке.
+ */
+public class UserWeightsProcessor implements Processor<Long, UserActionAvro, Long, SumDelta> {
+    private final LongSerializer prefixSerializer = new LongSerializer();
+    private ProcessorContext<Long, SumDelta> context;
+    private KeyValueStore<EventPair, Double> weights;
+
+    @Override
+    public void init(ProcessorContext<Long, SumDelta> context) {
+        this.context = context;
+        weights = context.getStateStore(SimilarityTopology.WEIGHTS_STORE);
+    }
+
+    @Override
+    public void process(Record<Long, UserActionAvro> record) {
+        UserActionAvro action = record.value();
+        long userId = action.getUserId();
+        long eventId = action.getEventId();
+
+        EventPair key = new EventPair(userId, eventId);
+        Double stored = weights.get(key);
+        double oldWeight = stored == null ? 0.0 : stored;
+        double newWeight = ActionWeights.of(action.getActionType());
+        if (oldWeight >= newWeight) {
+            return;
+        }
+        weights.put(key, newWeight);
+        context.forward(new Record<>(eventId, new SumDelta(eventId, eventId, newWeight - oldWeight),
+                record.timestamp()));
+
+        try (KeyValueIterator<EventPair, Double> userWeights = weights.prefixScan(userId, prefixSerializer)) {
+            while (userWeights.hasNext()) {
+                KeyValue<EventPair, Double> entry = userWeights.next();
+                long otherEventId = entry.key.second();
+                if (otherEventId == eventId) {
+                    continue;
+                }
+                double delta = Math.min(newWeight, entry.value) - Math.min(oldWeight, entry.value);
+                context.forward(new Record<>(eventId, new SumDelta(eventId, otherEventId, delta), record.timestamp()));
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ru.practicum.ewm.pipeline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.ewm.kafka.KafkaClient;
+import ru.practicum.ewm.serializer.GeneralAvroSerializer;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.service.FanOutLimiter;
+import ru.practicum.ewm.service.SimilarityCoalescer;
+import ru.practicum.ewm.service.SimilarityPublisher;
+import ru.practicum.ewm.service.SimilarityService;
+import ru.practicum.ewm.service.TopKNeighbourIndex;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.snapshot.SnapshotManager;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.PrimitiveSimilarityStore;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Снапшот конвейера сохраняется только после того, как брокер подтвердил все сходства, рассчитанные
+ * по записям до его смещений, а при ошибке отправки не сохраняется вовсе.
+ */
+class PipelinedAggregationStarterTest {
+    private static final String TOPIC = "stats.user-actions.v1";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final int SIMILARITIES = 3;
+
+    private final MockConsumer<String, SpecificRecordBase> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private final KafkaClient kafkaClient = mock(KafkaClient.class);
+    private final SnapshotManager snapshotManager = mock(SnapshotManager.class);
+    private final List<String> saves = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(kafkaClient.getConsumer()).thenReturn(consumer);
+        when(snapshotManager.restore()).thenReturn(Map.of());
+        when(snapshotManager.isDue()).thenReturn(true);
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        consumer.schedulePollTask(() -> {
+            consumer.rebalance(List.of(PARTITION));
+            // два пользователя смотрят одни и те же события: одно сходство от первого, два от второго
+            consumer.addRecord(record(0, 1L, 10L));
+            consumer.addRecord(record(1, 1L, 20L));
+            consumer.addRecord(record(2, 2L, 10L));
+            consumer.addRecord(record(3, 2L, 20L));
+        });
+        consumer.schedulePollTask(consumer::wakeup);
+    }
+
+    @Test
+    void snapshotWaitsForDelivery() {
+        MockProducer<String, SpecificRecordBase> producer =
+                new MockProducer<>(false, new StringSerializer(), new GeneralAvroSerializer());
+        when(kafkaClient.getProducer()).thenReturn(producer);
+        // на момент каждого сохранения запоминается «отправлено/подтверждено»
+        doAnswer(invocation -> {
+            saves.add(producer.history().size() + "/" + producer.flushed());
+            return null;
+        }).when(snapshotManager).saveIfDue(any());
+        doAnswer(invocation -> {
+            Map<TopicPartition, OffsetAndMetadata> offsets = invocation.getArgument(0);
+            assertEquals(Map.of(PARTITION, new OffsetAndMetadata(4L)), offsets);
+            saves.add(producer.history().size() + "/" + producer.flushed());
+            return null;
+        }).when(snapshotManager).save(any());
+
+        starter().start();
+
+        assertFalse(saves.isEmpty());
+        assertTrue(saves.stream().allMatch((SIMILARITIES + "/true")::equals), saves.toString());
+    }
+
+    @Test
+    void failedSendPreventsSnapshot() {
+        TimeoutException cause = new TimeoutException("брокер недоступен");
+        MockProducer<String, SpecificRecordBase> producer =
+                new MockProducer<>(false, new StringSerializer(), new GeneralAvroSerializer()) {
+                    @Override
+                    public synchronized void flush() {
+                        errorNext(cause);
+                        super.flush();
+                    }
+                };
+        when(kafkaClient.getProducer()).thenReturn(producer);
+
+        assertThrows(IllegalStateException.class, () -> starter().start());
+
+        verify(snapshotManager, never()).saveIfDue(any());
+        verify(snapshotManager, never()).save(any());
+    }
+
+    private PipelinedAggregationStarter starter() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PrimitiveSimilarityStore store = new PrimitiveSimilarityStore();
+        SimilarityService service = new SimilarityService(store, new WeightDecay(0),
+                new FanOutLimiter(store, 0, FanOutLimiter.Sampling.LATEST_ADDED, meterRegistry));
+        PipelinedAggregationStarter starter = new PipelinedAggregationStarter(kafkaClient, service, snapshotManager,
+                new SimilarityCoalescer(false, 0, meterRegistry), new TopKNeighbourIndex(0, meterRegistry),
+                new SimilarityPublisher("stats.events-similarity.v1", TopicFormat.SINGLE, 500), meterRegistry,
+                16, 16);
+        ReflectionTestUtils.setField(starter, "userActionsTopic", TOPIC);
+        ReflectionTestUtils.setField(starter, "priorityTopic", "");
+        ReflectionTestUtils.setField(starter, "priorityWeight", 4);
+        return starter;
+    }
+
+    private static ConsumerRecord<String, SpecificRecordBase> record(long offset, long userId, long eventId) {
+        UserActionAvro action = UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeAvro.VIEW)
+                .setTimestamp(Instant.ofEpochMilli(1_000L + offset))
+                .build();
+        return new ConsumerRecord<>(TOPIC, PARTITION.partition(), offset, null, action);
+    }
+}
@@ -0,0 +1,33 @@
+package ru.practicum.ewm.service;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.kafka.KafkaClient;
+import ru.practicum.ewm.snapshot.SnapshotManager;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Транзакционный режим без снапшотов отклоняется при старте, до создания консьюмера и продюсера.
+ */
+class AggregationStarterTest {
+    private final KafkaClient kafkaClient = mock(KafkaClient.class);
+    private final SnapshotManager snapshotManager = mock(SnapshotManager.class);
+
+    @Test
+    void transactionsWithoutSnapshotsFailAtStart() {
+        when(kafkaClient.isTransactional()).thenReturn(true);
+        when(snapshotManager.isEnabled()).thenReturn(false);
+        AggregationStarter starter = new AggregationStarter(kafkaClient, mock(SimilarityService.class),
+                snapshotManager, mock(ParallelAggregationEngine.class), mock(SimilarityCoalescer.class),
+                mock(TopKNeighbourIndex.class), mock(SimilarityPublisher.class));
+
+        assertThrows(IllegalStateException.class, starter::start);
+
+        verify(kafkaClient, never()).getConsumer();
+        verify(kafkaClient, never()).getProducer();
+    }
+}
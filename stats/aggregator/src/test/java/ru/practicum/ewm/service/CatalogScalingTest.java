@@ -0,0 +1,80 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.PrimitiveSimilarityStore;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Стоимость действия зависит только от событий самого пользователя, а не от размера каталога:
+ * одни и те же действия на каталогах из 10 тысяч и 1 миллиона событий стоят почти одинаково.
+ * Обход всех событий на каждое действие дал бы разницу в сто раз, поэтому порог взят с запасом
+ * на промахи кеша в больших таблицах.
+ */
+class CatalogScalingTest {
+    private static final int USERS = 50;
+    private static final int EVENTS_PER_USER = 20;
+    private static final int ROUNDS = 5;
+    private static final Instant TIMESTAMP = Instant.ofEpochMilli(1_000L);
+    private static final SimilaritySink IGNORED = (eventA, eventB, score, timestamp) -> {
+    };
+
+    @Test
+    void perActionCostDoesNotGrowWithCatalog(TestReporter reporter) {
+        perActionNanos(10_000);
+        long small = perActionNanos(10_000);
+        long large = perActionNanos(1_000_000);
+
+        reporter.publishEntry("нс на действие", "10 тыс. событий: " + small + ", 1 млн событий: " + large);
+        assertTrue(large < small * 4, "10 тыс. событий: " + small + " нс, 1 млн событий: " + large + " нс");
+    }
+
+    /**
+     * Заполняет каталог событиями, у каждого из которых свой фоновый пользователь, и возвращает лучшее
+     * из {@value #ROUNDS} измерений среднего времени действия новых пользователей с их собственными событиями.
+     */
+    private static long perActionNanos(int catalog) {
+        PrimitiveSimilarityStore store = new PrimitiveSimilarityStore();
+        SimilarityService service = new SimilarityService(store, new WeightDecay(0),
+                new FanOutLimiter(store, 0, FanOutLimiter.Sampling.LATEST_ADDED, new SimpleMeterRegistry()));
+        for (long eventId = 1; eventId <= catalog; eventId++) {
+            service.updateSimilarity(action(-eventId, eventId), IGNORED);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            UserActionAvro[] actions = new UserActionAvro[USERS * EVENTS_PER_USER];
+            int i = 0;
+            for (long userId = (long) round * USERS; userId < (long) (round + 1) * USERS; userId++) {
+                for (long eventId = 1; eventId <= EVENTS_PER_USER; eventId++) {
+                    actions[i++] = action(userId, eventId * (catalog / EVENTS_PER_USER));
+                }
+            }
+
+            int pairs = 0;
+            long started = System.nanoTime();
+            for (UserActionAvro action : actions) {
+                pairs += service.updateSimilarity(action, IGNORED);
+            }
+            best = Math.min(best, (System.nanoTime() - started) / actions.length);
+            assertEquals(USERS * EVENTS_PER_USER * (EVENTS_PER_USER - 1) / 2, pairs);
+        }
+        return best;
+    }
+
+    private static UserActionAvro action(long userId, long eventId) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeAvro.VIEW)
+                .setTimestamp(TIMESTAMP)
+                .build();
+    }
+}
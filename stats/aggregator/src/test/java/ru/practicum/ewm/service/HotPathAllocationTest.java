@@ -0,0 +1,109 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.PrimitiveSimilarityStore;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Пересчёт сходств на уже заполненном хранилище не выделяет памяти на пару: сходство уходит в
+ * {@link SimilaritySink} примитивами, запись собирается в {@link SimilarityRecordHolder},
+ * обход партнёров переиспользует объекты потока. Память считается счётчиком аллокаций потока.
+ */
+class HotPathAllocationTest {
+    private static final int USERS = 200;
+    private static final int EVENTS = 50;
+    private static final Instant TIMESTAMP = Instant.ofEpochMilli(1_000L);
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final PrimitiveSimilarityStore store = new PrimitiveSimilarityStore();
+    private final SimilarityService service = new SimilarityService(store, new WeightDecay(0),
+            new FanOutLimiter(store, 0, FanOutLimiter.Sampling.LATEST_ADDED, new SimpleMeterRegistry()));
+    private final SimilarityRecordHolder holder = new SimilarityRecordHolder();
+    private EventSimilarityAvro last;
+    private final SimilaritySink sink = (eventA, eventB, score, timestamp) ->
+            last = holder.fill(eventA, eventB, score, timestamp);
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        for (long userId = 0; userId < USERS; userId++) {
+            for (long eventId = 0; eventId < EVENTS; eventId++) {
+                service.updateSimilarity(action(userId, eventId, ActionTypeAvro.VIEW), sink);
+            }
+        }
+    }
+
+    @Test
+    void weightUpgradesDoNotAllocatePerPair() {
+        UserActionAvro[] warmUp = upgrades(0, USERS / 2);
+        UserActionAvro[] measured = upgrades(USERS / 2, USERS);
+        run(warmUp);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        int pairs = run(measured);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(measured.length * (EVENTS - 1), pairs);
+        assertTrue(allocated < pairs, "Выделено " + allocated + " байт на " + pairs + " пар");
+    }
+
+    @Test
+    void holderReusesRecord() {
+        EventSimilarityAvro first = holder.fill(1L, 2L, 0.5, TIMESTAMP.toEpochMilli());
+        Instant timestamp = first.getTimestamp();
+        EventSimilarityAvro second = holder.fill(3L, 4L, 0.7, TIMESTAMP.toEpochMilli());
+
+        assertSame(first, second);
+        assertSame(timestamp, second.getTimestamp());
+        assertEquals(3L, second.getEventA());
+        assertEquals(4L, second.getEventB());
+        assertEquals(0.7, second.getScore());
+
+        EventSimilarityAvro third = holder.fill(3L, 4L, 0.7, TIMESTAMP.toEpochMilli() + 1);
+        assertEquals(TIMESTAMP.plusMillis(1), third.getTimestamp());
+    }
+
+    private int run(UserActionAvro[] actions) {
+        int pairs = 0;
+        for (UserActionAvro action : actions) {
+            pairs += service.updateSimilarity(action, sink);
+        }
+        return pairs;
+    }
+
+    /**
+     * Повышение веса с просмотра до лайка для каждого события пользователей из диапазона.
+     */
+    private static UserActionAvro[] upgrades(int fromUser, int toUser) {
+        UserActionAvro[] actions = new UserActionAvro[(toUser - fromUser) * EVENTS];
+        int i = 0;
+        for (long userId = fromUser; userId < toUser; userId++) {
+            for (long eventId = 0; eventId < EVENTS; eventId++) {
+                actions[i++] = action(userId, eventId, ActionTypeAvro.LIKE);
+            }
+        }
+        return actions;
+    }
+
+    private static UserActionAvro action(long userId, long eventId, ActionTypeAvro type) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(type)
+                .setTimestamp(TIMESTAMP)
+                .build();
+    }
+}
@@ -0,0 +1,126 @@
+package ru.practicum.ewm.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.StripedSimilarityStore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Пары общие для пользователей разных воркеров: последнее отправленное сходство каждой пары должно
+ * совпадать со сходством, посчитанным по итоговому состоянию хранилища.
+ */
+class ParallelAggregationOrderTest {
+    private static final long EVENT_A = 1L;
+    private static final long EVENT_B = 2L;
+    private static final int PAIRS = 4;
+    private static final int USERS = 4000;
+
+    private final ParallelAggregationEngine engine = new ParallelAggregationEngine(4);
+    private final StripedSimilarityStore store = new StripedSimilarityStore(8);
+    private final SimilarityService service = new SimilarityService(store, new WeightDecay(0),
+            new FanOutLimiter(store, 0, FanOutLimiter.Sampling.LATEST_ADDED, new SimpleMeterRegistry()));
+    private final Map<Long, Double> lastEmitted = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void delayedEmitIsNotOvertakenByNewerScore() throws InterruptedException {
+        service.updateSimilarity(action(1L, EVENT_A, ActionTypeAvro.VIEW), this::record);
+        service.updateSimilarity(action(2L, EVENT_A, ActionTypeAvro.VIEW), this::record);
+        service.updateSimilarity(action(2L, EVENT_B, ActionTypeAvro.VIEW), this::record);
+
+        CountDownLatch firstComputed = new CountDownLatch(1);
+        CountDownLatch secondEmitted = new CountDownLatch(1);
+        Thread first = new Thread(() -> service.updateSimilarity(action(1L, EVENT_B, ActionTypeAvro.VIEW),
+                (eventA, eventB, score, timestamp) -> {
+                    firstComputed.countDown();
+                    // с упорядочиванием второй поток ждёт монитора пары, и ожидание истекает по таймауту
+                    await(secondEmitted, 300);
+                    record(eventA, eventB, score, timestamp);
+                }));
+        Thread second = new Thread(() -> {
+            await(firstComputed, 5000);
+            service.updateSimilarity(action(2L, EVENT_A, ActionTypeAvro.LIKE), (eventA, eventB, score, timestamp) -> {
+                record(eventA, eventB, score, timestamp);
+                secondEmitted.countDown();
+            });
+        });
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(expectedScore(EVENT_A, EVENT_B), lastEmitted.get(key(EVENT_A, EVENT_B)), 1e-12);
+    }
+
+    @Test
+    void lastEmittedScoreOfSharedPairIsNewest() {
+        // первое действие пользователя не затрагивает пар, поэтому выполняется до параллельной фазы
+        for (long userId = 1; userId <= USERS; userId++) {
+            service.updateSimilarity(action(userId, firstEvent(userId), ActionTypeAvro.VIEW), this::record);
+        }
+
+        List<UserActionAvro> batch = new ArrayList<>(USERS * 3);
+        for (long userId = 1; userId <= USERS; userId++) {
+            long first = firstEvent(userId);
+            batch.add(action(userId, first + 1, ActionTypeAvro.VIEW));
+            batch.add(action(userId, first, userId % 3 == 0 ? ActionTypeAvro.LIKE : ActionTypeAvro.REGISTER));
+            batch.add(action(userId, first + 1, userId % 2 == 0 ? ActionTypeAvro.LIKE : ActionTypeAvro.REGISTER));
+        }
+        engine.process(batch, action -> service.updateSimilarity(action, this::record));
+
+        for (long pair = 0; pair < PAIRS; pair++) {
+            long eventA = pair * 2 + 1;
+            long eventB = eventA + 1;
+            Double emitted = lastEmitted.get(key(eventA, eventB));
+            assertNotNull(emitted, "пара " + eventA + "-" + eventB);
+            assertEquals(expectedScore(eventA, eventB), emitted, 1e-12, "пара " + eventA + "-" + eventB);
+        }
+    }
+
+    private void record(long eventA, long eventB, double score, long timestamp) {
+        lastEmitted.put(key(eventA, eventB), score);
+    }
+
+    private double expectedScore(long eventA, long eventB) {
+        return store.getMinSum(eventA, eventB)
+                / (Math.sqrt(store.getEventSum(eventA)) * Math.sqrt(store.getEventSum(eventB)));
+    }
+
+    private static long key(long eventA, long eventB) {
+        return eventA * 1000 + eventB;
+    }
+
+    private static long firstEvent(long userId) {
+        // воркер выбирается по userId % 4, пара — по остальным битам, поэтому каждая пара общая для всех воркеров
+        return (userId / 4 % PAIRS) * 2 + 1;
+    }
+
+    private static void await(CountDownLatch latch, long timeoutMs) {
+        try {
+            latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static UserActionAvro action(long userId, long eventId, ActionTypeAvro type) {
+        return new UserActionAvro(userId, eventId, type, Instant.ofEpochMilli(userId));
+    }
+}
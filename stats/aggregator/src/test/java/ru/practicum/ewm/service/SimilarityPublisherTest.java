@@ -0,0 +1,63 @@
+package ru.practicum.ewm.service;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.serializer.GeneralAvroSerializer;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.stats.avro.EventSimilarityBatchAvro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link SimilarityPublisher#awaitDelivery} пропускает сохранение снапшота дальше, только если
+ * все отправленные сходства подтверждены.
+ */
+class SimilarityPublisherTest {
+    private static final String TOPIC = "stats.events-similarity.v1";
+
+    private final MockProducer<String, SpecificRecordBase> producer =
+            new MockProducer<>(false, new StringSerializer(), new GeneralAvroSerializer());
+
+    @Test
+    void deliveredSimilaritiesPass() {
+        SimilarityPublisher publisher = new SimilarityPublisher(TOPIC, TopicFormat.SINGLE, 500);
+        publisher.publish(producer, 1L, 2L, 0.5, 1_000L);
+        publisher.publish(producer, 1L, 3L, 0.7, 1_000L);
+
+        publisher.awaitDelivery(producer);
+
+        assertEquals(2, producer.history().size());
+    }
+
+    @Test
+    void failedSendIsReported() {
+        SimilarityPublisher publisher = new SimilarityPublisher(TOPIC, TopicFormat.SINGLE, 500);
+        publisher.publish(producer, 1L, 2L, 0.5, 1_000L);
+        publisher.publish(producer, 1L, 3L, 0.7, 1_000L);
+        TimeoutException cause = new TimeoutException("брокер недоступен");
+        assertTrue(producer.errorNext(cause));
+
+        KafkaException e = assertThrows(KafkaException.class, () -> publisher.awaitDelivery(producer));
+        assertSame(cause, e.getCause());
+    }
+
+    @Test
+    void partialEnvelopeIsSentBeforeWaiting() {
+        SimilarityPublisher publisher = new SimilarityPublisher(TOPIC, TopicFormat.BATCH, 10);
+        publisher.publish(producer, 1L, 2L, 0.5, 1_000L);
+        publisher.publish(producer, 1L, 3L, 0.7, 1_000L);
+        assertTrue(producer.history().isEmpty());
+
+        publisher.awaitDelivery(producer);
+
+        assertEquals(1, producer.history().size());
+        assertEquals(2, ((EventSimilarityBatchAvro) producer.history().get(0).value()).getSimilarities().size());
+    }
+}
@@ -0,0 +1,79 @@
+package ru.practicum.ewm.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.storage.PrimitiveSimilarityStore;
+import ru.practicum.ewm.storage.SimilarityStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotManagerTest {
+    private static final TopicPartition PARTITION = new TopicPartition("stats.user-actions.v1", 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void savesIntoMissingDirectoryAndRestores() {
+        Path file = tempDir.resolve("aggregator").resolve("state.snapshot");
+        SimilarityStore store = new PrimitiveSimilarityStore();
+        store.putWeight(10L, 1L, 0.8);
+        store.addEventSum(10L, 0.8);
+        store.addMinSum(10L, 20L, 0.4);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SnapshotManager manager = manager(store, meterRegistry, file, 0);
+
+        manager.save(Map.of(PARTITION, new OffsetAndMetadata(42L)));
+
+        assertTrue(Files.exists(file));
+        assertEquals(1.0, meterRegistry.get("aggregator.snapshot.saves").tag("result", "saved")
+                .functionCounter().count());
+        SimilarityStore restored = new PrimitiveSimilarityStore();
+        Map<TopicPartition, Long> offsets = manager(restored, new SimpleMeterRegistry(), file, 0).restore();
+        assertEquals(Map.of(PARTITION, 42L), offsets);
+        assertEquals(0.8, restored.getWeight(10L, 1L));
+        assertEquals(0.8, restored.getEventSum(10L));
+        assertEquals(0.4, restored.getMinSum(20L, 10L));
+    }
+
+    @Test
+    void repeatedFailuresAreCountedAndStopLoop() throws IOException {
+        Path blocker = Files.createFile(tempDir.resolve("not-a-directory"));
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SnapshotManager manager = manager(new PrimitiveSimilarityStore(), meterRegistry,
+                blocker.resolve("state.snapshot"), 2);
+        Map<TopicPartition, OffsetAndMetadata> offsets = Map.of(PARTITION, new OffsetAndMetadata(1L));
+
+        manager.saveIfDue(offsets);
+        assertEquals(1.0, meterRegistry.get("aggregator.snapshot.saves").tag("result", "failed")
+                .functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("aggregator.snapshot.consecutive-failures").gauge().value());
+
+        assertThrows(IllegalStateException.class, () -> manager.saveIfDue(offsets));
+        assertEquals(2.0, meterRegistry.get("aggregator.snapshot.consecutive-failures").gauge().value());
+    }
+
+    private static SnapshotManager manager(SimilarityStore store, MeterRegistry meterRegistry, Path file,
+                                           int maxConsecutiveFailures) {
+        SnapshotManager manager = new SnapshotManager(store, new WeightDecay(0), meterRegistry);
+        ReflectionTestUtils.setField(manager, "enabled", true);
+        ReflectionTestUtils.setField(manager, "path", file.toString());
+        ReflectionTestUtils.setField(manager, "intervalMs", 0L);
+        ReflectionTestUtils.setField(manager, "maxConsecutiveFailures", maxConsecutiveFailures);
+        manager.registerMetrics();
+        return manager;
+    }
+}
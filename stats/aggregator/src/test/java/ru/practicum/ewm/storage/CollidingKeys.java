@@ -0,0 +1,35 @@
+package ru.practicum.ewm.storage;
+
+/**
+ * Подбирает ключи, попадающие в одну ячейку таблицы ёмкостью до {@code capacity}: все вставки
+ * идут в одну цепочку линейного пробирования.
+ */
+final class CollidingKeys {
+
+    private CollidingKeys() {
+    }
+
+    static long[] single(int count, int capacity) {
+        int mask = capacity - 1;
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if ((HashCommon.mix(key) & mask) == 0) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    static long[][] pairs(int count, int capacity) {
+        int mask = capacity - 1;
+        long[][] pairs = new long[count][];
+        int found = 0;
+        for (long second = 1; found < count; second++) {
+            if ((HashCommon.mix(7L, second) & mask) == 0) {
+                pairs[found++] = new long[]{7L, second};
+            }
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,132 @@
+package ru.practicum.ewm.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongDoubleHashMapTest {
+
+    @Test
+    void freeKeyIsStoredApartFromTable() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1.0, map.get(0L, -1.0));
+
+        map.put(0L, 2.5);
+        map.put(1L, 1.0);
+        assertTrue(map.containsKey(0L));
+        assertEquals(2.5, map.get(0L, -1.0));
+        assertEquals(2, map.size());
+
+        assertEquals(3.0, map.addTo(0L, 0.5));
+        assertEquals(2, map.size());
+
+        Map<Long, Double> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(Map.of(0L, 3.0, 1L, 1.0), seen);
+
+        map.removeIf(key -> key == 0L);
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1.0, map.get(0L, -1.0));
+        assertEquals(1, map.size());
+        assertEquals(1.0, map.get(1L, -1.0));
+    }
+
+    @Test
+    void addToCreatesMissingKey() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+
+        assertEquals(0.25, map.addTo(42L, 0.25));
+        assertEquals(1.0, map.addTo(42L, 0.75));
+        assertEquals(-0.5, map.addTo(0L, -0.5));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void resizeKeepsAllEntries() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        long initialFootprint = map.memoryFootprint();
+        Map<Long, Double> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextLong();
+            double value = random.nextDouble();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertTrue(map.memoryFootprint() > initialFootprint);
+        expected.forEach((key, value) -> assertEquals(value.doubleValue(), map.get(key, Double.NaN)));
+        assertFalse(map.containsKey(Long.MIN_VALUE + 12345));
+    }
+
+    @Test
+    void collidingKeysSurviveGrowthAndRemoval() {
+        long[] colliding = CollidingKeys.single(600, 1 << 12);
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        for (int i = 0; i < colliding.length; i++) {
+            map.addTo(colliding[i], i);
+        }
+        assertEquals(colliding.length, map.size());
+        for (int i = 0; i < colliding.length; i++) {
+            assertEquals(i, map.get(colliding[i], -1.0));
+        }
+
+        map.removeIf(key -> Long.remainderUnsigned(key, 3) == 0);
+        int survivors = 0;
+        for (int i = 0; i < colliding.length; i++) {
+            boolean removed = Long.remainderUnsigned(colliding[i], 3) == 0;
+            assertEquals(!removed, map.containsKey(colliding[i]));
+            if (!removed) {
+                survivors++;
+                assertEquals(i, map.get(colliding[i], -1.0));
+            }
+        }
+        assertEquals(survivors, map.size());
+
+        for (int i = 0; i < colliding.length; i++) {
+            map.put(colliding[i], -i);
+        }
+        assertEquals(colliding.length, map.size());
+        for (int i = 0; i < colliding.length; i++) {
+            assertEquals(-i, map.get(colliding[i], 1.0));
+        }
+    }
+
+    @Test
+    void removeIfShrinksTable() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        for (long key = 1; key <= 10_000; key++) {
+            map.put(key, key);
+        }
+        long fullFootprint = map.memoryFootprint();
+
+        map.removeIf(key -> key > 10);
+
+        assertEquals(10, map.size());
+        assertTrue(map.memoryFootprint() < fullFootprint);
+        for (long key = 1; key <= 10_000; key++) {
+            assertEquals(key <= 10, map.containsKey(key));
+        }
+    }
+
+    @Test
+    void scaleMultipliesEveryValue() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        map.put(0L, 2.0);
+        map.put(5L, 4.0);
+
+        map.scale(0.5);
+
+        assertEquals(1.0, map.get(0L, -1.0));
+        assertEquals(2.0, map.get(5L, -1.0));
+    }
+}
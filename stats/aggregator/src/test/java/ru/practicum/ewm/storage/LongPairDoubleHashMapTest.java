@@ -0,0 +1,95 @@
+package ru.practicum.ewm.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongPairDoubleHashMapTest {
+
+    @Test
+    void zeroPairIsStoredApartFromTable() {
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        map.put(0L, 1L, 1.0);
+        map.put(1L, 0L, 2.0);
+
+        assertFalse(map.containsKey(0L, 0L));
+        map.addTo(0L, 0L, 3.0);
+        assertTrue(map.containsKey(0L, 0L));
+        assertEquals(3.0, map.get(0L, 0L, -1.0));
+        assertEquals(1.0, map.get(0L, 1L, -1.0));
+        assertEquals(2.0, map.get(1L, 0L, -1.0));
+        assertEquals(3, map.size());
+
+        List<String> seen = new ArrayList<>();
+        map.forEach((first, second, value) -> seen.add(first + ":" + second + "=" + value));
+        assertTrue(seen.contains("0:0=3.0"));
+        assertEquals(3, seen.size());
+
+        map.removeIf((first, second) -> first == 0L && second == 0L);
+        assertFalse(map.containsKey(0L, 0L));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void pairOrderIsPartOfKey() {
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        map.put(3L, 5L, 1.0);
+
+        assertTrue(map.containsKey(3L, 5L));
+        assertFalse(map.containsKey(5L, 3L));
+    }
+
+    @Test
+    void resizeKeepsAllEntries() {
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        for (long first = 1; first <= 300; first++) {
+            for (long second = 1; second <= 100; second++) {
+                map.addTo(first, second, first * second);
+            }
+        }
+
+        assertEquals(30_000, map.size());
+        for (long first = 1; first <= 300; first++) {
+            for (long second = 1; second <= 100; second++) {
+                assertEquals(first * second, map.get(first, second, -1.0));
+            }
+        }
+        assertFalse(map.containsKey(301L, 1L));
+    }
+
+    @Test
+    void collidingPairsSurviveGrowthAndRemoval() {
+        long[][] colliding = CollidingKeys.pairs(600, 1 << 12);
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        for (int i = 0; i < colliding.length; i++) {
+            map.put(colliding[i][0], colliding[i][1], i);
+        }
+        assertEquals(colliding.length, map.size());
+
+        map.removeIf((first, second) -> second % 2 == 0);
+        for (int i = 0; i < colliding.length; i++) {
+            boolean removed = colliding[i][1] % 2 == 0;
+            assertEquals(removed ? -1.0 : i, map.get(colliding[i][0], colliding[i][1], -1.0));
+        }
+    }
+
+    @Test
+    void clearEmptiesTable() {
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        map.put(0L, 0L, 1.0);
+        map.put(1L, 2L, 1.0);
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0L, 0L));
+        assertFalse(map.containsKey(1L, 2L));
+        map.put(1L, 2L, 5.0);
+        assertEquals(5.0, map.get(1L, 2L, -1.0));
+    }
+}
@@ -0,0 +1,127 @@
+package ru.practicum.ewm.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнивает примитивные таблицы с прежней раскладкой состояния на HashMap с упакованными ключами
+ * и значениями. Память считается детерминированно: для примитивных таблиц — их оценкой
+ * {@link MemoryFootprint}, для HashMap — по тем же размерам заголовков и ссылок из узлов, упакованных
+ * Long и Double и массива корзин. Скорость сравнивается только по запросу: {@code -Dbenchmarks=true}.
+ */
+class MemoryFootprintTest {
+    private static final int ENTRIES = 500_000;
+    private static final int FIRST_KEYS = 1_000;
+    private static final long ARRAY_HEADER = 16;
+    private static final long REFERENCE = 4;
+    private static final long HASH_MAP = 48;
+    private static final long NODE = 32;
+    private static final long BOXED_LONG = 24;
+    private static final long BOXED_DOUBLE = 24;
+
+    @Test
+    void footprintCountsBothArraysAndHeader() {
+        LongDoubleHashMap map = new LongDoubleHashMap(ENTRIES);
+        LongPairDoubleHashMap pairs = new LongPairDoubleHashMap(ENTRIES);
+        for (long key = 1; key <= ENTRIES; key++) {
+            map.put(key, key);
+            pairs.put(key % FIRST_KEYS, key, key);
+        }
+
+        int capacity = HashCommon.tableSize(ENTRIES);
+        assertEquals(MemoryFootprint.OBJECT_HEADER + 2 * (ARRAY_HEADER + capacity * 8L), map.memoryFootprint());
+        assertEquals(MemoryFootprint.OBJECT_HEADER + (ARRAY_HEADER + capacity * 16L) + (ARRAY_HEADER + capacity * 8L),
+                pairs.memoryFootprint());
+    }
+
+    @Test
+    void longDoubleMapTakesLessThanHalfOfBoxedHashMap() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        for (long key = 1; key <= ENTRIES; key++) {
+            map.put(key * 7919, key);
+        }
+
+        long primitive = map.memoryFootprint();
+        long boxed = boxedMap(ENTRIES, BOXED_DOUBLE);
+        assertTrue(primitive * 2 < boxed, "примитивная " + primitive + ", HashMap " + boxed);
+    }
+
+    @Test
+    void pairMapTakesLessThanTwoThirdsOfNestedBoxedHashMaps() {
+        LongPairDoubleHashMap map = new LongPairDoubleHashMap();
+        for (long key = 1; key <= ENTRIES; key++) {
+            map.put(key % FIRST_KEYS, key * 7919, key);
+        }
+
+        long primitive = map.memoryFootprint();
+        long inner = boxedMap(ENTRIES / FIRST_KEYS, BOXED_DOUBLE);
+        long boxed = boxedMap(FIRST_KEYS, inner);
+        assertTrue(primitive * 3 < boxed * 2, "примитивная " + primitive + ", HashMap " + boxed);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void longDoubleMapIsFasterThanBoxedHashMap(TestReporter reporter) {
+        long[] keys = new long[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = (i + 1) * 7919L;
+        }
+        long primitive = Long.MAX_VALUE;
+        long boxed = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            primitive = Math.min(primitive, timePrimitive(keys));
+            boxed = Math.min(boxed, timeBoxed(keys));
+        }
+
+        reporter.publishEntry("long→double, нс на запись и чтение", primitive / ENTRIES + " против HashMap "
+                + boxed / ENTRIES);
+        assertTrue(primitive < boxed, "примитивная " + primitive + " нс, HashMap " + boxed + " нс");
+    }
+
+    private static long timePrimitive(long[] keys) {
+        long started = System.nanoTime();
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        for (long key : keys) {
+            map.addTo(key, 1.0);
+        }
+        double sum = 0;
+        for (long key : keys) {
+            sum += map.get(key, 0.0);
+        }
+        assertEquals(keys.length, sum);
+        return System.nanoTime() - started;
+    }
+
+    private static long timeBoxed(long[] keys) {
+        long started = System.nanoTime();
+        Map<Long, Double> map = new HashMap<>();
+        for (long key : keys) {
+            map.merge(key, 1.0, Double::sum);
+        }
+        double sum = 0;
+        for (long key : keys) {
+            sum += map.getOrDefault(key, 0.0);
+        }
+        assertEquals(keys.length, sum);
+        return System.nanoTime() - started;
+    }
+
+    /**
+     * Память HashMap с {@code entries} упакованными ключами Long и значениями размером {@code value}:
+     * объект таблицы, массив корзин, выросший по правилу HashMap, и узел, ключ и значение на запись.
+     */
+    private static long boxedMap(int entries, long value) {
+        int buckets = 16;
+        while (entries > buckets * 3 / 4) {
+            buckets <<= 1;
+        }
+        return HASH_MAP + ARRAY_HEADER + buckets * REFERENCE + entries * (NODE + BOXED_LONG + value);
+    }
+}
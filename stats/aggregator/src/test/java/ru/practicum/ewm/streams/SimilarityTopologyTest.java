@@ -0,0 +1,192 @@
+package ru.practicum.ewm.streams;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.service.FanOutLimiter;
+import ru.practicum.ewm.service.SimilarityService;
+import ru.practicum.ewm.service.SimilaritySink;
+import ru.practicum.ewm.service.WeightDecay;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.storage.PrimitiveSimilarityStore;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Топология целиком: действия на входе, сходство пар на выходе. Число и значения сходств сверяются
+ * с цикловым движком {@link SimilarityService} на одном и том же потоке действий.
+ */
+class SimilarityTopologyTest {
+    private static final String ACTIONS_TOPIC = "stats.user-actions.v1";
+    private static final String SIMILARITY_TOPIC = "stats.events-similarity.v1";
+    private static final double EPSILON = 1e-9;
+
+    @TempDir
+    Path stateDir;
+
+    private TopologyTestDriver driver;
+    private TestInputTopic<byte[], UserActionAvro> actions;
+    private TestOutputTopic<Void, EventSimilarityAvro> similarities;
+
+    @BeforeEach
+    void setUp() {
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "similarity-topology-test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        config.put(StreamsConfig.STATESTORE_CACHE_MAX_BYTES_CONFIG, 0);
+
+        driver = new TopologyTestDriver(SimilarityTopology.build(List.of(ACTIONS_TOPIC), SIMILARITY_TOPIC), config);
+        actions = driver.createInputTopic(ACTIONS_TOPIC, Serdes.ByteArray().serializer(),
+                StreamsSerdes.userAction().serializer());
+        similarities = driver.createOutputTopic(SIMILARITY_TOPIC, Serdes.Void().deserializer(),
+                StreamsSerdes.eventSimilarity().deserializer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        driver.close();
+    }
+
+    @Test
+    void similarityOfCommonEvents() {
+        pipe(1L, 10L, ActionTypeAvro.VIEW);
+        pipe(1L, 20L, ActionTypeAvro.VIEW);
+        assertEquals(1.0, latestScores().get(EventPair.ordered(10L, 20L)), EPSILON);
+
+        pipe(2L, 10L, ActionTypeAvro.LIKE);
+        pipe(2L, 20L, ActionTypeAvro.VIEW);
+        assertEquals(0.8 / Math.sqrt(1.4 * 0.8), latestScores().get(EventPair.ordered(10L, 20L)), EPSILON);
+    }
+
+    @Test
+    void weightUpgradeChangesEventSumAndSimilarity() {
+        pipe(1L, 10L, ActionTypeAvro.VIEW);
+        pipe(1L, 20L, ActionTypeAvro.VIEW);
+        pipe(2L, 10L, ActionTypeAvro.LIKE);
+        pipe(2L, 20L, ActionTypeAvro.VIEW);
+        similarities.readValuesToList();
+
+        // минимум пары не меняется (0.4), а сумма весов события 20 растёт до 1.4
+        pipe(1L, 20L, ActionTypeAvro.LIKE);
+        assertEquals(0.8 / 1.4, latestScores().get(EventPair.ordered(10L, 20L)), EPSILON);
+
+        // у второго пользователя минимум пары растёт на 0.6, сумма весов события 20 — до 2.0
+        pipe(2L, 20L, ActionTypeAvro.LIKE);
+        assertEquals(1.4 / Math.sqrt(1.4 * 2.0), latestScores().get(EventPair.ordered(10L, 20L)), EPSILON);
+    }
+
+    @Test
+    void weightDowngradeIsIgnored() {
+        pipe(1L, 10L, ActionTypeAvro.LIKE);
+        pipe(1L, 20L, ActionTypeAvro.LIKE);
+        similarities.readValuesToList();
+
+        pipe(1L, 10L, ActionTypeAvro.VIEW);
+        pipe(1L, 20L, ActionTypeAvro.REGISTER);
+        assertTrue(similarities.isEmpty());
+    }
+
+    @Test
+    void pairsAreBuiltOnlyFromEventsOfTheSameUser() {
+        pipe(1L, 10L, ActionTypeAvro.VIEW);
+        pipe(2L, 30L, ActionTypeAvro.VIEW);
+        pipe(1L, 20L, ActionTypeAvro.VIEW);
+        pipe(3L, 40L, ActionTypeAvro.LIKE);
+        pipe(1L, 50L, ActionTypeAvro.VIEW);
+
+        Map<EventPair, Double> scores = latestScores();
+        assertEquals(Set.of(EventPair.ordered(10L, 20L), EventPair.ordered(10L, 50L), EventPair.ordered(20L, 50L)),
+                scores.keySet());
+        scores.values().forEach(score -> assertEquals(1.0, score, EPSILON));
+    }
+
+    @Test
+    void eventSumChangeDoesNotReemitOtherPairs() {
+        for (long userId = 1; userId <= 100; userId++) {
+            pipe(userId, 10L, ActionTypeAvro.VIEW);
+            pipe(userId, 1_000L + userId, ActionTypeAvro.VIEW);
+        }
+        assertEquals(100, similarities.readValuesToList().size());
+
+        // сумма весов события 10 меняется, но у пользователя нет других событий
+        pipe(500L, 10L, ActionTypeAvro.LIKE);
+        assertTrue(similarities.isEmpty());
+
+        // пересчитывается только пара с единственным другим событием пользователя
+        pipe(500L, 20L, ActionTypeAvro.VIEW);
+        assertEquals(Set.of(EventPair.ordered(10L, 20L)), latestScores().keySet());
+    }
+
+    @Test
+    void emitsAsManySimilaritiesAsLoopEngine() {
+        PrimitiveSimilarityStore store = new PrimitiveSimilarityStore();
+        SimilarityService loopEngine = new SimilarityService(store, new WeightDecay(0),
+                new FanOutLimiter(store, 0, FanOutLimiter.Sampling.LATEST_ADDED, new SimpleMeterRegistry()));
+        Map<EventPair, Double> loopScores = new HashMap<>();
+        SimilaritySink loopSink = (eventA, eventB, score, timestamp) ->
+                loopScores.put(new EventPair(eventA, eventB), score);
+
+        Random random = new Random(42);
+        ActionTypeAvro[] types = ActionTypeAvro.values();
+        int loopEmitted = 0;
+        int streamsEmitted = 0;
+        for (int i = 0; i < 5_000; i++) {
+            UserActionAvro action = action(random.nextInt(200), random.nextInt(50),
+                    types[random.nextInt(types.length)]);
+            loopEmitted += loopEngine.updateSimilarity(action, loopSink);
+            actions.pipeInput(null, action, action.getTimestamp());
+            for (EventSimilarityAvro similarity : similarities.readValuesToList()) {
+                streamsEmitted++;
+                EventPair pair = new EventPair(similarity.getEventA(), similarity.getEventB());
+                assertEquals(loopScores.get(pair), similarity.getScore(), EPSILON);
+            }
+        }
+
+        assertEquals(loopEmitted, streamsEmitted);
+    }
+
+    private void pipe(long userId, long eventId, ActionTypeAvro type) {
+        UserActionAvro action = action(userId, eventId, type);
+        actions.pipeInput(null, action, action.getTimestamp());
+    }
+
+    private static UserActionAvro action(long userId, long eventId, ActionTypeAvro type) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(type)
+                .setTimestamp(Instant.ofEpochMilli(1_000L))
+                .build();
+    }
+
+    /**
+     * Последнее сходство каждой пары из ещё не прочитанных записей выходного топика.
+     */
+    private Map<EventPair, Double> latestScores() {
+        Map<EventPair, Double> scores = new HashMap<>();
+        for (EventSimilarityAvro similarity : similarities.readValuesToList()) {
+            scores.put(new EventPair(similarity.getEventA(), similarity.getEventB()), similarity.getScore());
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.practicum.ewm.streams;
+
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.processor.api.MockProcessorContext;
+import org.apache.kafka.streams.processor.api.MockProcessorContext.CapturedForward;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Дельты сумм, которые процессор отправляет на каждое действие.
+ */
+class UserWeightsProcessorTest {
+    private static final double EPSILON = 1e-9;
+
+    private final MockProcessorContext<Long, SumDelta> context = new MockProcessorContext<>();
+    private final UserWeightsProcessor processor = new UserWeightsProcessor();
+    private KeyValueStore<EventPair, Double> weights;
+
+    @BeforeEach
+    void setUp() {
+        weights = Stores.keyValueStoreBuilder(Stores.inMemoryKeyValueStore(SimilarityTopology.WEIGHTS_STORE),
+                        StreamsSerdes.eventPair(), Serdes.Double())
+                .withLoggingDisabled()
+                .build();
+        weights.init(context.getStateStoreContext(), weights);
+        context.addStateStore(weights);
+        processor.init(context);
+    }
+
+    @Test
+    void firstActionForwardsOnlyEventSum() {
+        process(1L, 10L, ActionTypeAvro.REGISTER);
+
+        assertEquals(Map.of(EventPair.self(10L), 0.8), forwarded());
+        assertEquals(0.8, weights.get(new EventPair(1L, 10L)), EPSILON);
+    }
+
+    @Test
+    void pairsAreFoundByUserPrefix() {
+        process(1L, 10L, ActionTypeAvro.VIEW);
+        process(2L, 20L, ActionTypeAvro.LIKE);
+        process(1L, 30L, ActionTypeAvro.LIKE);
+        context.resetForwards();
+
+        process(1L, 40L, ActionTypeAvro.REGISTER);
+
+        Map<EventPair, Double> deltas = forwarded();
+        assertEquals(3, deltas.size());
+        assertEquals(0.8, deltas.get(EventPair.self(40L)), EPSILON);
+        assertEquals(0.4, deltas.get(EventPair.ordered(10L, 40L)), EPSILON);
+        assertEquals(0.8, deltas.get(EventPair.ordered(30L, 40L)), EPSILON);
+    }
+
+    @Test
+    void weightUpgradeForwardsDifferenceOfMinimums() {
+        process(1L, 10L, ActionTypeAvro.VIEW);
+        process(1L, 20L, ActionTypeAvro.REGISTER);
+        process(1L, 30L, ActionTypeAvro.VIEW);
+        context.resetForwards();
+
+        process(1L, 10L, ActionTypeAvro.LIKE);
+
+        // с событием 20 минимум растёт с 0.4 до 0.8, с событием 30 остаётся 0.4: нулевая дельта отправляется,
+        // потому что сходство пары зависит и от выросшей суммы весов события 10
+        Map<EventPair, Double> deltas = forwarded();
+        assertEquals(3, deltas.size());
+        assertEquals(0.6, deltas.get(EventPair.self(10L)), EPSILON);
+        assertEquals(0.4, deltas.get(EventPair.ordered(10L, 20L)), EPSILON);
+        assertEquals(0.0, deltas.get(EventPair.ordered(10L, 30L)), EPSILON);
+        assertEquals(1.0, weights.get(new EventPair(1L, 10L)), EPSILON);
+    }
+
+    @Test
+    void weightDowngradeForwardsNothing() {
+        process(1L, 10L, ActionTypeAvro.LIKE);
+        process(1L, 20L, ActionTypeAvro.VIEW);
+        context.resetForwards();
+
+        process(1L, 10L, ActionTypeAvro.VIEW);
+        process(1L, 20L, ActionTypeAvro.VIEW);
+
+        assertTrue(context.forwarded().isEmpty());
+        assertEquals(1.0, weights.get(new EventPair(1L, 10L)), EPSILON);
+    }
+
+    private void process(long userId, long eventId, ActionTypeAvro type) {
+        Instant timestamp = Instant.ofEpochMilli(1_000L);
+        processor.process(new Record<>(userId, UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(type)
+                .setTimestamp(timestamp)
+                .build(), timestamp.toEpochMilli()));
+    }
+
+    /**
+     * Отправленные дельты по парам; ключ каждой записи — событие из действия.
+     */
+    private Map<EventPair, Double> forwarded() {
+        Map<EventPair, Double> deltas = new HashMap<>();
+        for (CapturedForward<? extends Long, ? extends SumDelta> forward : context.forwarded()) {
+            SumDelta delta = forward.record().value();
+            assertEquals(delta.eventId(), forward.record().key());
+            deltas.merge(EventPair.ordered(delta.eventId(), delta.partnerId()), delta.delta(), Double::sum);
+        }
+        return deltas;
+    }
+}
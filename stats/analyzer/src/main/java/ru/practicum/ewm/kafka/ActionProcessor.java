@@ -2,17 +2,18 @@ package ru.practicum.ewm.kafka;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import ru.practicum.ewm.lane.LaneScheduler;
+import ru.practicum.ewm.serializer.TopicFormat;
 import ru.practicum.ewm.service.ActionService;
-import ru.practicum.ewm.stats.avro.UserActionAvro;
 
 import java.time.Duration;
-import java.util.List;
 
 @Slf4j
 @Component
@@ -23,18 +24,25 @@ public class ActionProcessor implements Runnable {
 
     @Value("${topics.user-actions}")
     private String topic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.lanes.priority-weight:4}")
+    private int priorityWeight;
 
     @Override
     public void run() {
-        log.info("Старт ActionProcessor для топика '{}'", topic);
-        Consumer<String, UserActionAvro> consumer = kafkaClient.getConsumerUserAction();
-        consumer.subscribe(List.of(topic));
+        LaneScheduler lanes = new LaneScheduler(topic, priorityTopic, priorityWeight);
+        log.info("Старт ActionProcessor для топиков {}", lanes.topics());
+        Consumer<String, SpecificRecordBase> consumer = kafkaClient.getConsumerUserAction();
+        consumer.subscribe(lanes.topics());
         try {
             while (true) {
-                ConsumerRecords<String, UserActionAvro> records = consumer.poll(Duration.ofSeconds(5));
-                for (ConsumerRecord<String, UserActionAvro> record : records) {
+                ConsumerRecords<String, SpecificRecordBase> records =
+                        consumer.poll(lanes.pollTimeout(Duration.ofSeconds(5)));
+                lanes.afterPoll(consumer, records);
+                for (ConsumerRecord<String, SpecificRecordBase> record : lanes.ordered(records)) {
                     log.info("Получено сообщение {}", record.value());
-                    service.saveOrUpdate(record.value());
+                    TopicFormat.forEachAction(record.value(), service::saveOrUpdate);
                 }
                 if (!records.isEmpty()) {
                     consumer.commitSync();
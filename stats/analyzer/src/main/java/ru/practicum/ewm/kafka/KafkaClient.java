@@ -1,14 +1,13 @@
 package ru.practicum.ewm.kafka;
 
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.Consumer;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
-import ru.practicum.ewm.stats.avro.UserActionAvro;
 
 public interface KafkaClient {
 
-    Consumer<String, EventSimilarityAvro> getConsumerSimilarity();
+    Consumer<String, SpecificRecordBase> getConsumerSimilarity();
 
-    Consumer<String, UserActionAvro> getConsumerUserAction();
+    Consumer<String, SpecificRecordBase> getConsumerUserAction();
 
     void stop();
 }
@@ -1,13 +1,14 @@
 package ru.practicum.ewm.kafka;
 
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
-import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.serializer.BaseAvroDeserializer;
+import ru.practicum.ewm.serializer.TopicFormat;
 
 import java.util.Properties;
 
@@ -29,32 +30,47 @@ public class KafkaClientConfig {
             private String actionsIdGroup;
             @Value("${kafka.consumer.similarity-group-id}")
             private String similarityIdGroup;
+            @Value("${kafka.consumer.avro-reuse:NONE}")
+            private String avroReuse;
+            @Value("${topics.formats.user-actions:SINGLE}")
+            private TopicFormat actionsFormat;
+            @Value("${topics.formats.events-similarity:SINGLE}")
+            private TopicFormat similarityFormat;
 
 
-            private Consumer<String, EventSimilarityAvro> similarityConsumer;
-            private Consumer<String, UserActionAvro> actionConsumer;
+            private Consumer<String, SpecificRecordBase> similarityConsumer;
+            private Consumer<String, SpecificRecordBase> actionConsumer;
 
             @Override
-            public Consumer<String, EventSimilarityAvro> getConsumerSimilarity() {
+            public Consumer<String, SpecificRecordBase> getConsumerSimilarity() {
                 if (similarityConsumer == null) {
                     Properties config = new Properties();
                     config.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
                     config.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
-                    config.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, similarityValueDeserializer);
+                    config.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                            similarityFormat == TopicFormat.SINGLE
+                                    ? similarityValueDeserializer
+                                    : similarityFormat.eventSimilarityDeserializer());
                     config.setProperty(ConsumerConfig.GROUP_ID_CONFIG, similarityIdGroup);
+                    config.setProperty(BaseAvroDeserializer.REUSE_CONFIG, avroReuse);
+                    config.setProperty(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
                     similarityConsumer = new KafkaConsumer<>(config);
                 }
                 return similarityConsumer;
             }
 
             @Override
-            public Consumer<String, UserActionAvro> getConsumerUserAction() {
+            public Consumer<String, SpecificRecordBase> getConsumerUserAction() {
                 if (actionConsumer == null) {
                     Properties config = new Properties();
                     config.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
                     config.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer);
-                    config.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, actionsValueDeserializer);
+                    config.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                            actionsFormat == TopicFormat.SINGLE
+                                    ? actionsValueDeserializer
+                                    : actionsFormat.userActionDeserializer());
                     config.setProperty(ConsumerConfig.GROUP_ID_CONFIG, actionsIdGroup);
+                    config.setProperty(BaseAvroDeserializer.REUSE_CONFIG, avroReuse);
                     actionConsumer = new KafkaConsumer<>(config);
                 }
                 return actionConsumer;
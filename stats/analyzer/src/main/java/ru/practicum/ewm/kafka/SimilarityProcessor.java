@@ -2,14 +2,15 @@ package ru.practicum.ewm.kafka;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import ru.practicum.ewm.serializer.TopicFormat;
 import ru.practicum.ewm.service.SimilarityService;
-import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
 
 import java.time.Duration;
 import java.util.List;
@@ -27,15 +28,15 @@ public class SimilarityProcessor implements Runnable {
     @Override
     public void run() {
         log.info("Старт SimilarityProcessor для топика '{}'", topic);
-        Consumer<String, EventSimilarityAvro> consumer = kafkaClient.getConsumerSimilarity();
+        Consumer<String, SpecificRecordBase> consumer = kafkaClient.getConsumerSimilarity();
         consumer.subscribe(List.of(topic));
 
         try {
             while (true) {
-                ConsumerRecords<String, EventSimilarityAvro> records = consumer.poll(Duration.ofSeconds(5));
-                for (ConsumerRecord<String, EventSimilarityAvro> record : records) {
+                ConsumerRecords<String, SpecificRecordBase> records = consumer.poll(Duration.ofSeconds(5));
+                for (ConsumerRecord<String, SpecificRecordBase> record : records) {
                     log.info("Получено сообщение {}", record.value());
-                    service.saveOrUpdate(record.value());
+                    TopicFormat.forEachSimilarity(record.value(), service::saveOrUpdate);
                     log.info("Схожесть обработана.");
                 }
                 if (!records.isEmpty()) {
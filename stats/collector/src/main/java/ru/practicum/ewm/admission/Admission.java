@@ -0,0 +1,13 @@
+package ru.practicum.ewm.admission;
+
+/**
+ * Решение о приёме действия.
+ */
+public enum Admission {
+    /** Действие принимается. */
+    ACCEPTED,
+    /** Действие молча отбрасывается, вызов подтверждается: клиенту незачем его повторять. */
+    SHED,
+    /** Вызов отклоняется с {@code RESOURCE_EXHAUSTED}, клиент должен снизить частоту. */
+    REJECTED
+}
@@ -0,0 +1,110 @@
+package ru.practicum.ewm.admission;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.kafka.InFlightTracker;
+import ru.practicum.grpc.stats.event.ActionTypeProto;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Допуск действий в коллектор.
+ * <ul>
+ *     <li>Отставание продюсера — число неподтверждённых Kafka действий. Выше {@code view-shed-in-flight} просмотры
+ *     отбрасываются с вероятностью, растущей до единицы к {@code shed-in-flight}; выше {@code shed-in-flight}
+ *     отклоняются и регистрации с лайками.</li>
+ *     <li>Корзины токенов на вызывающий сервис ({@code caller-rate}, {@code caller-burst}) и на пользователя
+ *     ({@code user-rate}, {@code user-burst}); ноль отключает лимит. Превышение отклоняет действие.</li>
+ * </ul>
+ * Каждое отброшенное или отклонённое действие учитывается в {@code collector.admission.shed}.
+ */
+@Slf4j
+@Component
+public class AdmissionControl {
+    private final InFlightTracker inFlight;
+    private final boolean enabled;
+    private final long viewShedInFlight;
+    private final long shedInFlight;
+    private final TokenBuckets<String> callers;
+    private final TokenBuckets<Long> users;
+    private final AtomicLong[][] shed = new AtomicLong[Reason.values().length][ActionTypeProto.values().length];
+
+    public AdmissionControl(InFlightTracker inFlight,
+                            MeterRegistry meterRegistry,
+                            @Value("${collector.admission.enabled:false}") boolean enabled,
+                            @Value("${collector.admission.view-shed-in-flight:20000}") long viewShedInFlight,
+                            @Value("${collector.admission.shed-in-flight:100000}") long shedInFlight,
+                            @Value("${collector.admission.caller-rate:5000}") double callerRate,
+                            @Value("${collector.admission.caller-burst:10000}") double callerBurst,
+                            @Value("${collector.admission.user-rate:50}") double userRate,
+                            @Value("${collector.admission.user-burst:100}") double userBurst,
+                            @Value("${collector.admission.max-keys:100000}") int maxKeys) {
+        this.inFlight = inFlight;
+        this.enabled = enabled;
+        this.viewShedInFlight = viewShedInFlight;
+        this.shedInFlight = Math.max(viewShedInFlight + 1, shedInFlight);
+        this.callers = new TokenBuckets<>(callerRate, callerBurst, maxKeys);
+        this.users = new TokenBuckets<>(userRate, userBurst, maxKeys);
+        for (Reason reason : Reason.values()) {
+            for (ActionTypeProto type : ActionTypeProto.values()) {
+                if (type == ActionTypeProto.UNRECOGNIZED) {
+                    continue;
+                }
+                AtomicLong counter = new AtomicLong();
+                shed[reason.ordinal()][type.ordinal()] = counter;
+                FunctionCounter.builder("collector.admission.shed", counter, AtomicLong::get)
+                        .description("Действия, не допущенные в коллектор")
+                        .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                        .tag("type", type.name().substring("ACTION_".length()).toLowerCase(Locale.ROOT))
+                        .register(meterRegistry);
+            }
+        }
+        if (enabled) {
+            log.info("Допуск действий: просмотры отбрасываются с {} в полёте, все — с {}; лимиты: сервис {}/с, "
+                    + "пользователь {}/с", viewShedInFlight, this.shedInFlight, callerRate, userRate);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Admission admit(String caller, UserActionProto action) {
+        if (!enabled) {
+            return Admission.ACCEPTED;
+        }
+        long backlog = inFlight.inFlight();
+        boolean view = action.getActionType() == ActionTypeProto.ACTION_VIEW;
+        if (backlog >= shedInFlight) {
+            return refuse(Reason.BACKLOG, action, view ? Admission.SHED : Admission.REJECTED);
+        }
+        if (view && backlog > viewShedInFlight && ThreadLocalRandom.current().nextLong(viewShedInFlight, shedInFlight)
+                < backlog) {
+            return refuse(Reason.BACKLOG, action, Admission.SHED);
+        }
+        if (caller != null && !callers.tryAcquire(caller)) {
+            return refuse(Reason.CALLER, action, Admission.REJECTED);
+        }
+        if (!users.tryAcquire(action.getUserId())) {
+            return refuse(Reason.USER, action, Admission.REJECTED);
+        }
+        return Admission.ACCEPTED;
+    }
+
+    private Admission refuse(Reason reason, UserActionProto action, Admission admission) {
+        if (action.getActionType() != ActionTypeProto.UNRECOGNIZED) {
+            shed[reason.ordinal()][action.getActionType().ordinal()].incrementAndGet();
+        }
+        return admission;
+    }
+
+    private enum Reason {
+        BACKLOG, CALLER, USER
+    }
+}
@@ -0,0 +1,43 @@
+package ru.practicum.ewm.admission;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Определяет вызывающий сервис для лимитов {@link AdmissionControl}: по заголовку {@value #CALLER_HEADER},
+ * а без него — по адресу клиента.
+ */
+@GrpcGlobalServerInterceptor
+public class CallerInterceptor implements ServerInterceptor {
+    public static final String CALLER_HEADER = "x-caller-id";
+    public static final Context.Key<String> CALLER = Context.key("caller");
+
+    private static final Metadata.Key<String> CALLER_KEY =
+            Metadata.Key.of(CALLER_HEADER, Metadata.ASCII_STRING_MARSHALLER);
+
+    @Override
+    public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers,
+                                                        ServerCallHandler<Q, R> next) {
+        String caller = headers.get(CALLER_KEY);
+        if (caller == null || caller.isBlank()) {
+            caller = addressOf(call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR));
+        }
+        return Contexts.interceptCall(Context.current().withValue(CALLER, caller), call, headers, next);
+    }
+
+    private static String addressOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet && inet.getAddress() != null) {
+            return inet.getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+}
@@ -0,0 +1,78 @@
+package ru.practicum.ewm.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Корзины токенов по ключу: {@code rate} токенов в секунду, не больше {@code burst} в запасе.
+ * Когда ключей больше {@code maxKeys}, не чаще раза в секунду удаляются полностью наполнившиеся корзины —
+ * новая корзина для того же ключа ведёт себя так же.
+ */
+final class TokenBuckets<K> {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double ratePerNano;
+    private final double burst;
+    private final int maxKeys;
+    private final Map<K, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile long nextSweep;
+
+    TokenBuckets(double rate, double burst, int maxKeys) {
+        this.ratePerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.maxKeys = maxKeys;
+        this.nextSweep = System.nanoTime();
+    }
+
+    boolean isUnlimited() {
+        return ratePerNano <= 0;
+    }
+
+    boolean tryAcquire(K key) {
+        if (isUnlimited()) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (buckets.size() > maxKeys && now - nextSweep >= 0) {
+            sweep(now);
+        }
+        return buckets.computeIfAbsent(key, k -> new Bucket(burst, now)).tryAcquire(now);
+    }
+
+    private void sweep(long now) {
+        nextSweep = now + SWEEP_INTERVAL_NANOS;
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    private final class Bucket {
+        private double tokens;
+        private long refilledAt;
+
+        private Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        private synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+                refilledAt = now;
+            }
+        }
+    }
+}
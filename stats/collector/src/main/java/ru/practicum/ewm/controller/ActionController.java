@@ -5,24 +5,146 @@ import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Value;
+import ru.practicum.ewm.admission.Admission;
+import ru.practicum.ewm.admission.AdmissionControl;
+import ru.practicum.ewm.admission.CallerInterceptor;
 import ru.practicum.ewm.handler.action.UserActionHandler;
 import ru.practicum.grpc.stats.event.UserActionControllerGrpc;
 import ru.practicum.grpc.stats.event.UserActionProto;
+import ru.practicum.grpc.stats.event.UserActionsAckProto;
 
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
 @RequiredArgsConstructor
 @GrpcService
 public class ActionController extends UserActionControllerGrpc.UserActionControllerImplBase {
     private final UserActionHandler userActionHandlerMap;
+    private final AdmissionControl admissionControl;
+
+    @Value("${collector.stream.batch-size:500}")
+    private int batchSize;
+    @Value("${collector.stream.ack-every:1000}")
+    private int ackEvery;
 
     @Override
     public void collectUserAction(UserActionProto request, StreamObserver<Empty> responseObserver) {
+        Admission admission = admissionControl.admit(CallerInterceptor.CALLER.get(), request);
+        if (admission == Admission.REJECTED) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Превышен лимит приёма действий").asRuntimeException());
+            return;
+        }
         try {
-            userActionHandlerMap.handle(request);
+            if (admission == Admission.ACCEPTED) {
+                userActionHandlerMap.handle(request);
+            }
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
         } catch (Exception e) {
             responseObserver.onError(new StatusRuntimeException(Status.fromThrowable(e)));
         }
     }
+
+    @Override
+    public StreamObserver<UserActionProto> collectUserActions(StreamObserver<UserActionsAckProto> responseObserver) {
+        return new ActionStream(responseObserver, false);
+    }
+
+    @Override
+    public StreamObserver<UserActionProto> streamUserActions(StreamObserver<UserActionsAckProto> responseObserver) {
+        return new ActionStream(responseObserver, true);
+    }
+
+    /**
+     * Принимает поток действий и передаёт их обработчику пачками по {@code batch-size}.
+     * Подтверждение содержит число действий, переданных продюсеру с начала потока: в двунаправленном
+     * вызове оно отправляется каждые {@code ack-every} действий и при завершении, в клиентском — только
+     * при завершении. Действия, не допущенные {@link AdmissionControl}, пропускаются и в подтверждение
+     * не входят.
+     */
+    private final class ActionStream implements StreamObserver<UserActionProto> {
+        private final StreamObserver<UserActionsAckProto> responseObserver;
+        private final boolean periodicAcks;
+        private final String caller = CallerInterceptor.CALLER.get();
+        private final List<UserActionProto> pending = new ArrayList<>(batchSize);
+        private long accepted;
+        private long acked;
+        private boolean failed;
+        private Exception failure;
+
+        private ActionStream(StreamObserver<UserActionsAckProto> responseObserver, boolean periodicAcks) {
+            this.responseObserver = responseObserver;
+            this.periodicAcks = periodicAcks;
+        }
+
+        @Override
+        public void onNext(UserActionProto action) {
+            if (failed || admissionControl.admit(caller, action) != Admission.ACCEPTED) {
+                return;
+            }
+            pending.add(action);
+            if (pending.size() >= batchSize && !handlePending()) {
+                fail();
+                return;
+            }
+            if (periodicAcks && accepted - acked >= ackEvery) {
+                ack();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.warn("Поток действий прерван клиентом: {}", Status.fromThrowable(t));
+            if (!failed) {
+                handlePending();
+            }
+            failed = true;
+        }
+
+        @Override
+        public void onCompleted() {
+            if (failed) {
+                return;
+            }
+            if (!handlePending()) {
+                fail();
+                return;
+            }
+            ack();
+            responseObserver.onCompleted();
+            log.info("Поток действий завершён, принято {}", accepted);
+        }
+
+        private boolean handlePending() {
+            if (pending.isEmpty()) {
+                return true;
+            }
+            try {
+                userActionHandlerMap.handleBatch(pending);
+                accepted += pending.size();
+                return true;
+            } catch (Exception e) {
+                log.error("Ошибка обработки пачки действий", e);
+                failure = e;
+                return false;
+            } finally {
+                pending.clear();
+            }
+        }
+
+        private void fail() {
+            failed = true;
+            responseObserver.onError(new StatusRuntimeException(Status.fromThrowable(failure)));
+        }
+
+        private void ack() {
+            responseObserver.onNext(UserActionsAckProto.newBuilder().setAccepted(accepted).build());
+            acked = accepted;
+        }
+    }
 }
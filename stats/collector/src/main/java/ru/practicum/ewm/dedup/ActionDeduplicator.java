@@ -0,0 +1,209 @@
+package ru.practicum.ewm.dedup;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Отбрасывает повторы действия (пользователь, событие, тип) в пределах окна {@code window-ms}.
+ * Ключи хранятся в двух фильтрах Блума: текущем и предыдущем. Раз в окно предыдущий фильтр
+ * выбрасывается, а текущий становится предыдущим, поэтому повтор распознаётся не менее одного
+ * и не более двух окон после первого действия.
+ * <p>
+ * Ложное срабатывание фильтра отбрасывает новое действие; его вероятность задаётся {@code false-positive-rate}
+ * при {@code expected-actions} уникальных действиях за окно.
+ * <p>
+ * Проверка ({@link #isDuplicate}) и запоминание ({@link #mark}) разделены: ключ запоминается только после
+ * успешной записи действия, поэтому одновременные одинаковые запросы могут пройти оба — это допустимый
+ * дубль, в отличие от потери действия.
+ */
+@Slf4j
+@Component
+public class ActionDeduplicator {
+    private final boolean enabled;
+    private final long windowMs;
+    private final int bits;
+    private final int hashes;
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private volatile long rotateAt;
+
+    public ActionDeduplicator(MeterRegistry meterRegistry,
+                              @Value("${collector.dedup.enabled:false}") boolean enabled,
+                              @Value("${collector.dedup.window-ms:60000}") long windowMs,
+                              @Value("${collector.dedup.expected-actions:1000000}") long expectedActions,
+                              @Value("${collector.dedup.false-positive-rate:0.001}") double falsePositiveRate) {
+        this.enabled = enabled;
+        this.windowMs = windowMs;
+        double optimalBits = -expectedActions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(optimalBits)));
+        hashes = Math.max(1, (int) Math.round((double) bits / expectedActions * Math.log(2)));
+        if (enabled) {
+            current = new BloomFilter(bits);
+            previous = new BloomFilter(bits);
+            rotateAt = System.currentTimeMillis() + windowMs;
+            log.info("Дедупликация действий: окно {} мс, фильтр {} бит, {} хеш-функций", windowMs, bits, hashes);
+        }
+        FunctionCounter.builder("collector.dedup.actions", passed, AtomicLong::get)
+                .description("Действия, прошедшие фильтр повторов")
+                .tag("result", "passed")
+                .register(meterRegistry);
+        FunctionCounter.builder("collector.dedup.actions", suppressed, AtomicLong::get)
+                .description("Действия, отброшенные как повторы")
+                .tag("result", "suppressed")
+                .register(meterRegistry);
+        Gauge.builder("collector.dedup.suppression.rate", this, ActionDeduplicator::suppressionRate)
+                .description("Доля отброшенных повторов среди всех проверенных действий")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Проверяет, встречалось ли действие в окне, но не запоминает его: ключ запоминается через {@link #mark}
+     * только после того, как действие принято, иначе повтор клиента после ошибки отправки был бы отброшен.
+     * Возвращает {@code true}, если действие — повтор.
+     */
+    public boolean isDuplicate(UserActionProto action) {
+        if (!enabled) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= rotateAt) {
+            rotate(now);
+        }
+        long h1 = hash(action);
+        long h2 = secondHash(h1, action);
+        if (current.mightContain(h1, h2, hashes) || previous.mightContain(h1, h2, hashes)) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Действия пачки без повторов: и уже принятых в окне, и повторяющихся внутри самой пачки.
+     */
+    public List<UserActionProto> withoutDuplicates(List<UserActionProto> actions) {
+        if (!enabled) {
+            return actions;
+        }
+        List<UserActionProto> fresh = new ArrayList<>(actions.size());
+        Set<ActionKey> seen = new HashSet<>();
+        for (UserActionProto action : actions) {
+            if (isDuplicate(action)) {
+                continue;
+            }
+            if (seen.add(new ActionKey(action.getUserId(), action.getEventId(), action.getActionTypeValue()))) {
+                fresh.add(action);
+            } else {
+                suppressed.incrementAndGet();
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Запоминает ключ принятого действия.
+     */
+    public void mark(UserActionProto action) {
+        if (!enabled) {
+            return;
+        }
+        long h1 = hash(action);
+        current.put(h1, secondHash(h1, action), hashes);
+        passed.incrementAndGet();
+    }
+
+    public void markAll(List<UserActionProto> actions) {
+        for (UserActionProto action : actions) {
+            mark(action);
+        }
+    }
+
+    private synchronized void rotate(long now) {
+        if (now < rotateAt) {
+            return;
+        }
+        previous = current;
+        current = new BloomFilter(bits);
+        rotateAt = now + windowMs;
+    }
+
+    private double suppressionRate() {
+        long total = passed.get() + suppressed.get();
+        return total == 0 ? 0 : (double) suppressed.get() / total;
+    }
+
+    private static long hash(UserActionProto action) {
+        return mix(action.getUserId() * 0x9E3779B97F4A7C15L + action.getEventId());
+    }
+
+    private static long secondHash(long h1, UserActionProto action) {
+        return mix(h1 ^ (action.getActionTypeValue() + 1L) * 0xC2B2AE3D27D4EB4FL) | 1;
+    }
+
+    private static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private record ActionKey(long userId, long eventId, int actionType) {
+    }
+
+    private static final class BloomFilter {
+        private final AtomicLongArray words;
+        private final int bits;
+
+        private BloomFilter(int bits) {
+            this.bits = bits;
+            words = new AtomicLongArray((bits + 63) >>> 6);
+        }
+
+        private boolean mightContain(long h1, long h2, int hashes) {
+            long h = h1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) Long.remainderUnsigned(h, bits);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+                h += h2;
+            }
+            return true;
+        }
+
+        private void put(long h1, long h2, int hashes) {
+            long h = h1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) Long.remainderUnsigned(h, bits);
+                long mask = 1L << bit;
+                int word = bit >>> 6;
+                long value = words.get(word);
+                while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                    value = words.get(word);
+                }
+                h += h2;
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package ru.practicum.ewm.handler.action;
 
 import ru.practicum.grpc.stats.event.UserActionProto;
 
+import java.util.List;
+
 public interface UserActionHandler {
     void handle(UserActionProto event);
+
+    void handleBatch(List<UserActionProto> events);
 }
@@ -2,27 +2,55 @@ package ru.practicum.ewm.handler.action;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import ru.practicum.ewm.kafka.KafkaClient;
-import ru.practicum.ewm.mapper.UserActionMapper;
+import ru.practicum.ewm.dedup.ActionDeduplicator;
+import ru.practicum.ewm.kafka.UserActionSender;
+import ru.practicum.ewm.spool.ActionSpool;
 import ru.practicum.grpc.stats.event.UserActionProto;
 
+import java.util.List;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class UserActionImpl implements UserActionHandler {
-    private final KafkaClient kafkaClient;
-    private final UserActionMapper hubEventMapper;
-
-    @Value("${topics.user-action}")
-    private String topic;
+    private final UserActionSender sender;
+    private final ActionDeduplicator deduplicator;
+    private final ActionSpool spool;
 
     @Override
     public void handle(UserActionProto eventProto) {
-        kafkaClient.getProducer().send(new ProducerRecord<>(topic, hubEventMapper.toAvro(eventProto)));
-        log.info("Действие отправлено в топик: {}", topic);
+        if (deduplicator.isDuplicate(eventProto)) {
+            log.debug("Повтор действия отброшен: userId={}, eventId={}", eventProto.getUserId(),
+                    eventProto.getEventId());
+            return;
+        }
+        if (spool.isEnabled()) {
+            spool.append(eventProto);
+        } else {
+            sender.send(eventProto);
+        }
+        deduplicator.mark(eventProto);
+    }
+
+    /**
+     * Действия запоминаются для дедупликации только после записи: при ошибке посреди пачки
+     * запомнена лишь записанная часть, а остальное пройдёт при повторе клиента.
+     */
+    @Override
+    public void handleBatch(List<UserActionProto> events) {
+        events = deduplicator.withoutDuplicates(events);
+        if (events.isEmpty()) {
+            return;
+        }
+        if (spool.isEnabled()) {
+            for (UserActionProto event : events) {
+                spool.append(event);
+                deduplicator.mark(event);
+            }
+            return;
+        }
+        sender.sendAll(events, null);
+        deduplicator.markAll(events);
     }
 }
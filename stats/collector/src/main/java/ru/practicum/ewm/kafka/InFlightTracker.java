@@ -0,0 +1,41 @@
+package ru.practicum.ewm.kafka;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.Callback;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Считает действия, переданные продюсерам и ещё не подтверждённые Kafka: по этой глубине очереди
+ * коллектор понимает, что продюсер не успевает.
+ */
+@Component
+public class InFlightTracker {
+    private final AtomicLong inFlight = new AtomicLong();
+
+    public InFlightTracker(MeterRegistry meterRegistry) {
+        Gauge.builder("collector.producer.in-flight", inFlight, AtomicLong::get)
+                .description("Действия, отправленные в Kafka и ещё не подтверждённые")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Учитывает {@code actions} действий одной записи; возвращённый callback снимает их с учёта
+     * и передаёт результат в {@code delegate}, если он задан.
+     */
+    public Callback track(int actions, Callback delegate) {
+        inFlight.addAndGet(actions);
+        return (metadata, exception) -> {
+            inFlight.addAndGet(-actions);
+            if (delegate != null) {
+                delegate.onCompletion(metadata, exception);
+            }
+        };
+    }
+
+    public long inFlight() {
+        return inFlight.get();
+    }
+}
@@ -2,10 +2,21 @@ package ru.practicum.ewm.kafka;
 
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.producer.Producer;
+import ru.practicum.ewm.lane.ActionLane;
 
 public interface KafkaClient {
 
     Producer<String, SpecificRecordBase> getProducer();
 
+    /**
+     * Продюсер полосы действий; без приоритетной полосы у обеих полос общий продюсер.
+     */
+    Producer<String, SpecificRecordBase> getProducer(ActionLane lane);
+
+    /**
+     * Продюсер полосы для значений, уже сериализованных вызывающим.
+     */
+    Producer<String, byte[]> getRawProducer(ActionLane lane);
+
     void stop();
 }
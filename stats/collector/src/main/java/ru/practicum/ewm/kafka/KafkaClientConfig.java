@@ -4,10 +4,14 @@ import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.ewm.lane.ActionLane;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Properties;
 
 @Configuration
@@ -22,30 +26,64 @@ public class KafkaClientConfig {
             private String keySerializer;
             @Value("${kafka.producer.value-serializer}")
             private String valueSerializer;
-            private Producer<String, SpecificRecordBase> producer;
+            @Value("${kafka.producer.partition-key:NONE}")
+            private PartitionKey partitionKey;
+            @Value("${topics.lanes.priority:}")
+            private String priorityTopic;
+            @Value("${kafka.producer.lanes.bulk.linger-ms:20}")
+            private int bulkLingerMs;
+            @Value("${kafka.producer.lanes.bulk.batch-size:131072}")
+            private int bulkBatchSize;
+            @Value("${kafka.producer.lanes.priority.linger-ms:0}")
+            private int priorityLingerMs;
+            @Value("${kafka.producer.lanes.priority.batch-size:16384}")
+            private int priorityBatchSize;
+            private final Map<ActionLane, Producer<String, SpecificRecordBase>> producers =
+                    new EnumMap<>(ActionLane.class);
+            private final Map<ActionLane, Producer<String, byte[]>> rawProducers = new EnumMap<>(ActionLane.class);
 
             @Override
             public Producer<String, SpecificRecordBase> getProducer() {
-                if (producer == null) {
-                    initProducer();
-                }
-                return producer;
+                return getProducer(ActionLane.BULK);
+            }
+
+            @Override
+            public synchronized Producer<String, SpecificRecordBase> getProducer(ActionLane lane) {
+                return producers.computeIfAbsent(laneOf(lane),
+                        key -> new KafkaProducer<>(producerConfig(valueSerializer, key)));
+            }
+
+            @Override
+            public synchronized Producer<String, byte[]> getRawProducer(ActionLane lane) {
+                return rawProducers.computeIfAbsent(laneOf(lane),
+                        key -> new KafkaProducer<>(producerConfig(ByteArraySerializer.class.getName(), key)));
             }
 
-            private void initProducer() {
+            private ActionLane laneOf(ActionLane lane) {
+                return priorityTopic.isBlank() ? ActionLane.BULK : lane;
+            }
+
+            private Properties producerConfig(String valueSerializer, ActionLane lane) {
                 Properties config = new Properties();
                 config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
                 config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
                 config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
-
-                producer = new KafkaProducer<>(config);
+                if (partitionKey != PartitionKey.NONE) {
+                    config.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, UserActionPartitioner.class.getName());
+                    config.put(UserActionPartitioner.KEY_CONFIG, partitionKey.name());
+                }
+                if (!priorityTopic.isBlank()) {
+                    boolean priority = lane == ActionLane.PRIORITY;
+                    config.put(ProducerConfig.LINGER_MS_CONFIG, priority ? priorityLingerMs : bulkLingerMs);
+                    config.put(ProducerConfig.BATCH_SIZE_CONFIG, priority ? priorityBatchSize : bulkBatchSize);
+                }
+                return config;
             }
 
             @Override
-            public void stop() {
-                if (producer != null) {
-                    producer.close();
-                }
+            public synchronized void stop() {
+                producers.values().forEach(Producer::close);
+                rawProducers.values().forEach(Producer::close);
             }
         };
     }
@@ -0,0 +1,11 @@
+package ru.practicum.ewm.kafka;
+
+/**
+ * Поле действия, по которому выбирается партиция топика действий.
+ * {@code NONE} оставляет выбор партиции продюсеру Kafka.
+ */
+public enum PartitionKey {
+    NONE,
+    USER,
+    EVENT
+}
@@ -0,0 +1,158 @@
+package ru.practicum.ewm.kafka;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.lane.ActionLane;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Собирает действия в конверты {@link UserActionBatchAvro}, когда топик действий работает в формате BATCH.
+ * Конверт отправляется по заполнении или не позже чем через {@code linger-ms} после первого действия в нём.
+ * При заданном {@code partition-key} конверты собираются отдельно для каждой партиции.
+ * Действия приоритетной полосы ({@code topics.lanes.priority}) не копятся и уходят в свой топик сразу.
+ */
+@Slf4j
+@Component
+public class UserActionBatcher {
+    private final KafkaClient kafkaClient;
+    private final InFlightTracker inFlight;
+    private final String topic;
+    private final String priorityTopic;
+    private final boolean enabled;
+    private final int maxSize;
+    private final PartitionKey partitionKey;
+    private final ScheduledExecutorService flusher;
+    private final Map<EnvelopeKey, List<UserActionAvro>> pending = new HashMap<>();
+    private final int[] partitions = new int[ActionLane.values().length];
+
+    public UserActionBatcher(KafkaClient kafkaClient,
+                             InFlightTracker inFlight,
+                             @Value("${topics.user-action}") String topic,
+                             @Value("${topics.lanes.priority:}") String priorityTopic,
+                             @Value("${topics.formats.user-action:SINGLE}") TopicFormat format,
+                             @Value("${topics.envelope.max-size:500}") int maxSize,
+                             @Value("${topics.envelope.linger-ms:50}") long lingerMs,
+                             @Value("${kafka.producer.partition-key:NONE}") PartitionKey partitionKey) {
+        this.kafkaClient = kafkaClient;
+        this.inFlight = inFlight;
+        this.topic = topic;
+        this.priorityTopic = priorityTopic;
+        this.enabled = format == TopicFormat.BATCH;
+        this.maxSize = Math.max(1, maxSize);
+        this.partitionKey = partitionKey;
+        if (enabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-action-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+            log.info("Действия отправляются конвертами до {} записей, задержка {} мс", this.maxSize, lingerMs);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void add(UserActionAvro action) {
+        EnvelopeKey key = keyOf(action);
+        if (key.lane() == ActionLane.PRIORITY) {
+            send(key, List.of(action), null);
+            return;
+        }
+        List<UserActionAvro> actions = pending.computeIfAbsent(key, k -> new ArrayList<>(maxSize));
+        actions.add(action);
+        if (actions.size() >= maxSize) {
+            send(key, actions, null);
+            pending.remove(key);
+        }
+    }
+
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        pending.forEach((key, actions) -> send(key, actions, null));
+        pending.clear();
+    }
+
+    /**
+     * Сразу отправляет действия конвертами, минуя накопление; {@code callback} получает результат
+     * отправки каждого конверта.
+     */
+    public synchronized void sendNow(List<UserActionAvro> actions, Callback callback) {
+        Map<EnvelopeKey, List<UserActionAvro>> envelopes = new HashMap<>();
+        for (UserActionAvro action : actions) {
+            EnvelopeKey key = keyOf(action);
+            List<UserActionAvro> envelope = envelopes.computeIfAbsent(key, k -> new ArrayList<>());
+            envelope.add(action);
+            if (envelope.size() >= maxSize) {
+                send(key, envelope, callback);
+                envelopes.remove(key);
+            }
+        }
+        envelopes.forEach((key, envelope) -> send(key, envelope, callback));
+    }
+
+    private void send(EnvelopeKey key, List<UserActionAvro> actions, Callback callback) {
+        UserActionBatchAvro envelope = new UserActionBatchAvro(actions);
+        String laneTopic = topicOf(key.lane());
+        kafkaClient.getProducer(key.lane()).send(key.partition() < 0
+                ? new ProducerRecord<>(laneTopic, envelope)
+                : new ProducerRecord<>(laneTopic, key.partition(), null, envelope),
+                inFlight.track(actions.size(), callback));
+        log.debug("Отправлен конверт из {} действий в топик {}", actions.size(), laneTopic);
+    }
+
+    private EnvelopeKey keyOf(UserActionAvro action) {
+        ActionLane lane = priorityTopic.isBlank() ? ActionLane.BULK : ActionLane.of(action.getActionType());
+        if (partitionKey == PartitionKey.NONE) {
+            return new EnvelopeKey(lane, -1);
+        }
+        if (partitions[lane.ordinal()] == 0) {
+            partitions[lane.ordinal()] = kafkaClient.getProducer(lane).partitionsFor(topicOf(lane)).size();
+        }
+        return new EnvelopeKey(lane, UserActionPartitioner.partitionOf(partitionKey, action,
+                partitions[lane.ordinal()]));
+    }
+
+    private String topicOf(ActionLane lane) {
+        return lane == ActionLane.PRIORITY ? priorityTopic : topic;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Ошибка отправки конверта действий", e);
+        }
+    }
+
+    private record EnvelopeKey(ActionLane lane, int partition) {
+    }
+}
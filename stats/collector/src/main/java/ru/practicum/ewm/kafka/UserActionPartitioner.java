@@ -0,0 +1,82 @@
+package ru.practicum.ewm.kafka;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.errors.SerializationException;
+import ru.practicum.ewm.lane.KeyHash;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Выбирает партицию топика действий по userId или eventId из самого значения: ключ записи не передаётся.
+ * Понимает {@link UserActionAvro}, конверт {@link UserActionBatchAvro} (по первому действию; конверты
+ * собираются по партициям в {@link UserActionBatcher}) и сериализованный {@link UserActionProto},
+ * из которого читается только нужное поле.
+ */
+public class UserActionPartitioner implements Partitioner {
+    public static final String KEY_CONFIG = "user-action.partition-key";
+
+    private PartitionKey key = PartitionKey.USER;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object value = configs.get(KEY_CONFIG);
+        if (value != null && !value.toString().isBlank()) {
+            key = PartitionKey.valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    @Override
+    public int partition(String topic, Object recordKey, byte[] keyBytes, Object value, byte[] valueBytes,
+                         Cluster cluster) {
+        int partitions = cluster.partitionCountForTopic(topic);
+        if (value instanceof UserActionAvro action) {
+            return partitionOf(key, action, partitions);
+        }
+        if (value instanceof UserActionBatchAvro batch && !batch.getActions().isEmpty()) {
+            return partitionOf(key, batch.getActions().get(0), partitions);
+        }
+        if (value instanceof byte[] bytes && key != PartitionKey.NONE) {
+            return KeyHash.partitionOf(readProtoField(bytes, key == PartitionKey.USER
+                    ? UserActionProto.USER_ID_FIELD_NUMBER
+                    : UserActionProto.EVENT_ID_FIELD_NUMBER), partitions);
+        }
+        return ThreadLocalRandom.current().nextInt(partitions);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public static int partitionOf(PartitionKey key, UserActionAvro action, int partitions) {
+        return switch (key) {
+            case USER -> KeyHash.partitionOf(action.getUserId(), partitions);
+            case EVENT -> KeyHash.partitionOf(action.getEventId(), partitions);
+            case NONE -> ThreadLocalRandom.current().nextInt(partitions);
+        };
+    }
+
+    private static long readProtoField(byte[] bytes, int fieldNumber) {
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(bytes);
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == fieldNumber) {
+                    return input.readInt64();
+                }
+                input.skipField(tag);
+            }
+            return 0;
+        } catch (IOException e) {
+            throw new SerializationException("Не удалось прочитать поле " + fieldNumber + " действия", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.practicum.ewm.kafka;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.lane.ActionLane;
+import ru.practicum.ewm.mapper.UserActionMapper;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.util.List;
+
+/**
+ * Отправляет действия в топик в его формате: запись Avro, конверт или исходный protobuf.
+ * Если задан {@code topics.lanes.priority}, регистрации и лайки идут в приоритетный топик своим продюсером.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserActionSender {
+    private final KafkaClient kafkaClient;
+    private final UserActionMapper hubEventMapper;
+    private final UserActionBatcher batcher;
+    private final InFlightTracker inFlight;
+
+    @Value("${topics.user-action}")
+    private String topic;
+    @Value("${topics.lanes.priority:}")
+    private String priorityTopic;
+    @Value("${topics.formats.user-action:SINGLE}")
+    private TopicFormat format;
+
+    public void send(UserActionProto eventProto) {
+        if (format == TopicFormat.PROTO) {
+            ActionLane lane = laneOf(eventProto);
+            kafkaClient.getRawProducer(lane).send(new ProducerRecord<>(topicOf(lane), eventProto.toByteArray()),
+                    inFlight.track(1, null));
+            return;
+        }
+        if (batcher.isEnabled()) {
+            batcher.add(hubEventMapper.toAvro(eventProto));
+            return;
+        }
+        ActionLane lane = laneOf(eventProto);
+        kafkaClient.getProducer(lane).send(new ProducerRecord<>(topicOf(lane), hubEventMapper.toAvro(eventProto)),
+                inFlight.track(1, null));
+        log.info("Действие отправлено в топик: {}", topicOf(lane));
+    }
+
+    /**
+     * Отправляет пачку без накопления в конвертах; {@code callback}, если задан, получает результат
+     * каждой отправленной записи.
+     */
+    public void sendAll(List<UserActionProto> events, Callback callback) {
+        if (format == TopicFormat.PROTO) {
+            for (UserActionProto event : events) {
+                ActionLane lane = laneOf(event);
+                kafkaClient.getRawProducer(lane).send(new ProducerRecord<>(topicOf(lane), event.toByteArray()),
+                        inFlight.track(1, callback));
+            }
+        } else if (batcher.isEnabled()) {
+            batcher.sendNow(events.stream().map(hubEventMapper::toAvro).toList(), callback);
+        } else {
+            for (UserActionProto event : events) {
+                ActionLane lane = laneOf(event);
+                kafkaClient.getProducer(lane).send(new ProducerRecord<>(topicOf(lane), hubEventMapper.toAvro(event)),
+                        inFlight.track(1, callback));
+            }
+        }
+        log.debug("Пачка из {} действий отправлена в топик: {}", events.size(), topic);
+    }
+
+    /**
+     * Ждёт завершения всех начатых отправок.
+     */
+    public void flush() {
+        for (ActionLane lane : ActionLane.values()) {
+            if (format == TopicFormat.PROTO) {
+                kafkaClient.getRawProducer(lane).flush();
+            } else {
+                kafkaClient.getProducer(lane).flush();
+            }
+        }
+    }
+
+    private ActionLane laneOf(UserActionProto event) {
+        return priorityTopic.isBlank() ? ActionLane.BULK : ActionLane.of(event.getActionType());
+    }
+
+    private String topicOf(ActionLane lane) {
+        return lane == ActionLane.PRIORITY ? priorityTopic : topic;
+    }
+}
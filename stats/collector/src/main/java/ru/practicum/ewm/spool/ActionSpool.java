@@ -0,0 +1,334 @@
+package ru.practicum.ewm.spool;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.ewm.kafka.UserActionSender;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Журнал действий на диске между приёмом и Kafka: вызов gRPC подтверждается сразу после записи
+ * в отображённый в память сегмент, а отдельный поток пересылает журнал в Kafka пачками.
+ * <ul>
+ *     <li>Запись сегмента — длина сообщения плюс один (int) и сериализованный {@link UserActionProto};
+ *     ноль означает конец записанных данных.</li>
+ *     <li>Позиция пересылки (номер сегмента и смещение) хранится в файле {@value #CURSOR_FILE} и сдвигается
+ *     только после того, как Kafka подтвердила всю пачку, поэтому после перезапуска пересылка продолжается
+ *     с неё. Пачку, отправленную частично, пересылка повторяет целиком: возможны дубли.</li>
+ *     <li>Диск ограничен {@code max-segments} сегментами по {@code segment-bytes}; при заполнении новые
+ *     действия отклоняются.</li>
+ * </ul>
+ * Данные в отображённой памяти переживают падение процесса, но не сбой ОС.
+ */
+@Slf4j
+@Component
+public class ActionSpool {
+    private static final String CURSOR_FILE = "cursor";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final UserActionSender sender;
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int relayBatch;
+    private final long retryBackoffMs;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong relayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private MappedByteBuffer cursor;
+    private Segment writeSegment;
+    private volatile boolean running;
+    private Thread relay;
+
+    public ActionSpool(UserActionSender sender,
+                       MeterRegistry meterRegistry,
+                       @Value("${collector.spool.enabled:false}") boolean enabled,
+                       @Value("${collector.spool.dir:/tmp/collector/spool}") String dir,
+                       @Value("${collector.spool.segment-bytes:67108864}") int segmentBytes,
+                       @Value("${collector.spool.max-segments:16}") int maxSegments,
+                       @Value("${collector.spool.relay-batch:500}") int relayBatch,
+                       @Value("${collector.spool.retry-backoff-ms:1000}") long retryBackoffMs) {
+        this.sender = sender;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+        this.relayBatch = Math.max(1, relayBatch);
+        this.retryBackoffMs = retryBackoffMs;
+        Gauge.builder("collector.spool.segments", this, ActionSpool::segmentCount)
+                .description("Сегменты журнала действий на диске")
+                .register(meterRegistry);
+        registerCounter(meterRegistry, "appended", appended);
+        registerCounter(meterRegistry, "relayed", relayed);
+        registerCounter(meterRegistry, "rejected", rejected);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(dir);
+            cursor = map(dir.resolve(CURSOR_FILE), Long.BYTES + Integer.BYTES);
+            long cursorSegment = cursor.getLong(0);
+            int cursorPosition = cursor.getInt(Long.BYTES);
+            for (long id : segmentIds()) {
+                if (id < cursorSegment) {
+                    Files.delete(segmentPath(id));
+                } else {
+                    Segment segment = new Segment(id, map(segmentPath(id), segmentBytes));
+                    segment.limit = recoverLimit(segment);
+                    segment.sealed = true;
+                    segments.addLast(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть журнал действий в " + dir, e);
+        }
+
+        Segment first;
+        int position;
+        if (segments.isEmpty()) {
+            first = createSegment(cursor.getLong(0) + 1);
+            position = 0;
+            saveCursor(first.id, position);
+        } else {
+            first = segments.peekFirst();
+            position = first.id == cursor.getLong(0) ? cursor.getInt(Long.BYTES) : 0;
+        }
+        writeSegment = segments.peekLast();
+        writeSegment.sealed = false;
+        log.info("Журнал действий открыт: {} сегментов, пересылка с сегмента {} позиции {}",
+                segments.size(), first.id, position);
+
+        running = true;
+        relay = new Thread(() -> runRelay(first, position), "action-spool-relay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (relay == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(relay);
+        relay.join(TimeUnit.SECONDS.toMillis(10));
+        log.info("Пересылка журнала действий остановлена, непереданное будет переслано после перезапуска");
+    }
+
+    public void append(UserActionProto action) {
+        byte[] bytes = action.toByteArray();
+        int size = HEADER_BYTES + bytes.length;
+        if (size > segmentBytes) {
+            throw new IllegalArgumentException("Действие размером " + bytes.length + " байт не помещается в сегмент");
+        }
+        synchronized (this) {
+            if (writeSegment.limit + size > segmentBytes) {
+                roll();
+            }
+            int position = writeSegment.limit;
+            writeSegment.buffer.put(position + HEADER_BYTES, bytes);
+            writeSegment.buffer.putInt(position, bytes.length + 1);
+            writeSegment.limit = position + size;
+        }
+        appended.incrementAndGet();
+    }
+
+    private void roll() {
+        if (segments.size() >= maxSegments) {
+            rejected.incrementAndGet();
+            throw new IllegalStateException("Журнал действий заполнен: " + maxSegments + " сегментов");
+        }
+        Segment next = createSegment(writeSegment.id + 1);
+        writeSegment.sealed = true;
+        writeSegment = next;
+    }
+
+    private void runRelay(Segment segment, int position) {
+        List<UserActionProto> batch = new ArrayList<>(relayBatch);
+        while (running) {
+            boolean sealed = segment.sealed;
+            int limit = segment.limit;
+            int end = read(segment, position, limit, batch);
+            if (batch.isEmpty() && end == position) {
+                if (sealed && position >= limit) {
+                    segment = advance(segment);
+                    position = 0;
+                } else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                continue;
+            }
+            if (batch.isEmpty() || deliver(batch)) {
+                relayed.addAndGet(batch.size());
+                position = end;
+                saveCursor(segment.id, position);
+            }
+            batch.clear();
+        }
+    }
+
+    private int read(Segment segment, int position, int limit, List<UserActionProto> batch) {
+        while (position < limit && batch.size() < relayBatch) {
+            int length = segment.buffer.getInt(position) - 1;
+            byte[] bytes = new byte[length];
+            segment.buffer.get(position + HEADER_BYTES, bytes);
+            position += HEADER_BYTES + length;
+            try {
+                batch.add(UserActionProto.parseFrom(bytes));
+            } catch (InvalidProtocolBufferException e) {
+                log.error("Повреждённая запись в сегменте {} пропущена", segment.id, e);
+            }
+        }
+        return position;
+    }
+
+    private boolean deliver(List<UserActionProto> batch) {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            sender.sendAll(batch, (metadata, e) -> {
+                if (e != null) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            sender.flush();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        if (failure.get() == null) {
+            return true;
+        }
+        log.warn("Не удалось переслать {} действий из журнала, повтор через {} мс: {}",
+                batch.size(), retryBackoffMs, failure.get().getMessage());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMs));
+        return false;
+    }
+
+    private Segment advance(Segment segment) {
+        Segment next;
+        synchronized (this) {
+            segments.removeFirst();
+            next = segments.peekFirst();
+        }
+        saveCursor(next.id, 0);
+        try {
+            Files.deleteIfExists(segmentPath(segment.id));
+        } catch (IOException e) {
+            log.warn("Не удалось удалить пересланный сегмент {}", segment.id, e);
+        }
+        return next;
+    }
+
+    /**
+     * Смещение сначала обнуляется, затем меняется сегмент: при падении между ними сегмент перешлётся повторно,
+     * но не будет пропущен.
+     */
+    private void saveCursor(long segmentId, int position) {
+        if (cursor.getLong(0) != segmentId) {
+            cursor.putInt(Long.BYTES, 0);
+            cursor.putLong(0, segmentId);
+        }
+        cursor.putInt(Long.BYTES, position);
+    }
+
+    private Segment createSegment(long id) {
+        try {
+            Segment segment = new Segment(id, map(segmentPath(id), segmentBytes));
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать сегмент журнала " + id, e);
+        }
+    }
+
+    private int recoverLimit(Segment segment) {
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentBytes) {
+            int header = segment.buffer.getInt(position);
+            if (header <= 0 || position + HEADER_BYTES + header - 1 > segmentBytes) {
+                break;
+            }
+            position += HEADER_BYTES + header - 1;
+        }
+        return position;
+    }
+
+    private List<Long> segmentIds() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void registerCounter(MeterRegistry meterRegistry, String stage, AtomicLong counter) {
+        FunctionCounter.builder("collector.spool.actions", counter, AtomicLong::get)
+                .description("Действия, прошедшие через журнал")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final MappedByteBuffer buffer;
+        private volatile int limit;
+        private volatile boolean sealed;
+
+        private Segment(long id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.practicum.ewm.handler.action;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.dedup.ActionDeduplicator;
+import ru.practicum.ewm.kafka.UserActionSender;
+import ru.practicum.ewm.spool.ActionSpool;
+import ru.practicum.grpc.stats.event.ActionTypeProto;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Действие, которое не удалось передать дальше, не запоминается дедупликатором: повтор клиента
+ * после ошибки проходит, а повтор уже принятого действия отбрасывается.
+ */
+class UserActionImplTest {
+    private final UserActionSender sender = mock(UserActionSender.class);
+    private final ActionSpool spool = mock(ActionSpool.class);
+    private final ActionDeduplicator deduplicator =
+            new ActionDeduplicator(new SimpleMeterRegistry(), true, 60_000, 1_000, 0.001);
+    private final UserActionImpl handler = new UserActionImpl(sender, deduplicator, spool);
+
+    @Test
+    void failedSendIsNotSuppressedOnRetry() {
+        UserActionProto action = action(1L, 10L);
+        doThrow(new TimeoutException("буфер продюсера заполнен")).doNothing().when(sender).send(action);
+
+        assertThrows(TimeoutException.class, () -> handler.handle(action));
+        handler.handle(action);
+        handler.handle(action);
+
+        verify(sender, times(2)).send(action);
+    }
+
+    @Test
+    void failedSpoolAppendIsNotSuppressedOnRetry() {
+        when(spool.isEnabled()).thenReturn(true);
+        UserActionProto action = action(1L, 10L);
+        doThrow(new IllegalStateException("Журнал действий заполнен")).doNothing().when(spool).append(action);
+
+        assertThrows(IllegalStateException.class, () -> handler.handle(action));
+        handler.handle(action);
+        handler.handle(action);
+
+        verify(spool, times(2)).append(action);
+    }
+
+    @Test
+    void batchRetryResendsOnlyTheUnwrittenTail() {
+        when(spool.isEnabled()).thenReturn(true);
+        UserActionProto first = action(1L, 10L);
+        UserActionProto second = action(1L, 20L);
+        UserActionProto third = action(1L, 30L);
+        doThrow(new IllegalStateException("Журнал действий заполнен")).doNothing().when(spool).append(second);
+
+        assertThrows(IllegalStateException.class, () -> handler.handleBatch(List.of(first, second, third)));
+        verify(spool, never()).append(third);
+
+        handler.handleBatch(List.of(first, second, third));
+
+        verify(spool, times(1)).append(first);
+        verify(spool, times(2)).append(second);
+        verify(spool, times(1)).append(third);
+    }
+
+    @Test
+    void failedBatchSendIsNotSuppressedOnRetry() {
+        UserActionProto first = action(1L, 10L);
+        UserActionProto second = action(2L, 10L);
+        doThrow(new TimeoutException("буфер продюсера заполнен")).doNothing()
+                .when(sender).sendAll(any(), eq(null));
+
+        assertThrows(TimeoutException.class, () -> handler.handleBatch(List.of(first, second)));
+        handler.handleBatch(List.of(first, second));
+        handler.handleBatch(List.of(first, second));
+
+        verify(sender, times(2)).sendAll(List.of(first, second), null);
+        verify(sender, times(2)).sendAll(any(), eq(null));
+    }
+
+    @Test
+    void repeatInsideBatchIsSentOnce() {
+        UserActionProto action = action(1L, 10L);
+        doNothing().when(sender).sendAll(any(), eq(null));
+
+        handler.handleBatch(List.of(action, action(2L, 10L), action));
+
+        verify(sender).sendAll(List.of(action, action(2L, 10L)), null);
+    }
+
+    private static UserActionProto action(long userId, long eventId) {
+        return UserActionProto.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeProto.ACTION_LIKE)
+                .build();
+    }
+}
@@ -0,0 +1,179 @@
+package ru.practicum.ewm.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.practicum.ewm.lane.ActionLane;
+import ru.practicum.ewm.lane.KeyHash;
+import ru.practicum.ewm.mapper.UserActionMapper;
+import ru.practicum.ewm.serializer.GeneralAvroSerializer;
+import ru.practicum.ewm.serializer.TopicFormat;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+import ru.practicum.grpc.stats.event.ActionTypeProto;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Конверты действий собираются отдельно для каждой партиции и уходят в неё целиком, а в формате BATCH
+ * то же число действий занимает в сотни раз меньше записей, чем в формате SINGLE.
+ */
+class UserActionBatcherTest {
+    private static final String TOPIC = "stats.user-actions.v1";
+    private static final int PARTITIONS = 4;
+    private static final int MAX_SIZE = 500;
+    private static final long LINGER_MS = 60_000;
+    private static final int USERS = 50;
+    private static final int EVENTS = 20;
+    private static final Node NODE = new Node(0, "localhost", 9092);
+
+    private final KafkaClient kafkaClient = mock(KafkaClient.class);
+    private final InFlightTracker inFlight = new InFlightTracker(new SimpleMeterRegistry());
+    private final MockProducer<String, SpecificRecordBase> producer = new MockProducer<>(cluster(), true,
+            new UserActionPartitioner(), new StringSerializer(), new GeneralAvroSerializer());
+    private final List<UserActionBatcher> batchers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        batchers.forEach(UserActionBatcher::shutdown);
+    }
+
+    @Test
+    void envelopesAreGroupedByPartition() {
+        List<UserActionAvro> actions = actions();
+        UserActionBatcher batcher = batcher(TopicFormat.BATCH, actions.size(), PartitionKey.USER);
+        actions.forEach(batcher::add);
+        assertTrue(producer.history().isEmpty());
+
+        batcher.flush();
+
+        Set<Integer> partitions = new HashSet<>();
+        List<UserActionAvro> sent = new ArrayList<>();
+        for (ProducerRecord<String, SpecificRecordBase> record : producer.history()) {
+            assertTrue(partitions.add(record.partition()), "Два конверта в партицию " + record.partition());
+            TopicFormat.forEachAction(record.value(), action -> {
+                assertEquals(KeyHash.partitionOf(action.getUserId(), PARTITIONS), record.partition());
+                sent.add(action);
+            });
+        }
+        assertEquals(PARTITIONS, partitions.size());
+        assertEquals(actions.size(), sent.size());
+        assertEquals(new HashSet<>(actions), new HashSet<>(sent));
+        assertEquals(0, inFlight.inFlight());
+    }
+
+    @Test
+    void fullEnvelopeIsSentWithoutWaiting() {
+        UserActionBatcher batcher = batcher(TopicFormat.BATCH, 3, PartitionKey.USER);
+        for (long eventId = 0; eventId < 7; eventId++) {
+            batcher.add(action(1L, eventId));
+        }
+        assertEquals(2, producer.history().size());
+
+        batcher.flush();
+
+        assertEquals(List.of(3, 3, 1), producer.history().stream()
+                .map(record -> ((UserActionBatchAvro) record.value()).getActions().size())
+                .toList());
+        // действия одного пользователя идут в одну партицию в порядке поступления
+        List<Long> events = new ArrayList<>();
+        producer.history().forEach(record -> TopicFormat.forEachAction(record.value(),
+                action -> events.add(action.getEventId())));
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L), events);
+    }
+
+    @Test
+    void batchFormatSendsFewerRecordsThanSingle() {
+        List<UserActionProto> actions = new ArrayList<>();
+        for (long userId = 0; userId < USERS; userId++) {
+            for (long eventId = 0; eventId < EVENTS; eventId++) {
+                actions.add(UserActionProto.newBuilder()
+                        .setUserId(userId)
+                        .setEventId(eventId)
+                        .setActionType(ActionTypeProto.ACTION_VIEW)
+                        .build());
+            }
+        }
+
+        sender(TopicFormat.SINGLE).sendAll(actions, null);
+        int single = producer.history().size();
+        producer.clear();
+        sender(TopicFormat.BATCH).sendAll(actions, null);
+        int batch = producer.history().size();
+
+        // по конверту на каждые начатые MAX_SIZE действий партиции
+        Map<Integer, Integer> perPartition = new HashMap<>();
+        actions.forEach(action -> perPartition.merge(KeyHash.partitionOf(action.getUserId(), PARTITIONS), 1,
+                Integer::sum));
+        int envelopes = perPartition.values().stream().mapToInt(count -> (count + MAX_SIZE - 1) / MAX_SIZE).sum();
+        assertEquals(actions.size(), single);
+        assertEquals(envelopes, batch);
+        assertTrue(batch * 100 < single, "SINGLE: " + single + " записей, BATCH: " + batch);
+    }
+
+    private UserActionSender sender(TopicFormat format) {
+        UserActionSender sender = new UserActionSender(kafkaClient, new UserActionMapper(),
+                batcher(format, MAX_SIZE, PartitionKey.USER), inFlight);
+        ReflectionTestUtils.setField(sender, "topic", TOPIC);
+        ReflectionTestUtils.setField(sender, "priorityTopic", "");
+        ReflectionTestUtils.setField(sender, "format", format);
+        return sender;
+    }
+
+    private UserActionBatcher batcher(TopicFormat format, int maxSize, PartitionKey partitionKey) {
+        when(kafkaClient.getProducer(any(ActionLane.class))).thenReturn(producer);
+        UserActionBatcher batcher = new UserActionBatcher(kafkaClient, inFlight, TOPIC, "", format, maxSize,
+                LINGER_MS, partitionKey);
+        batchers.add(batcher);
+        return batcher;
+    }
+
+    private static Cluster cluster() {
+        List<PartitionInfo> partitions = IntStream.range(0, PARTITIONS)
+                .mapToObj(partition -> new PartitionInfo(TOPIC, partition, NODE, new Node[]{NODE}, new Node[]{NODE}))
+                .toList();
+        return new Cluster("test", List.of(NODE), partitions, Set.of(), Set.of());
+    }
+
+    private static List<UserActionAvro> actions() {
+        List<UserActionAvro> actions = new ArrayList<>();
+        for (long userId = 0; userId < USERS; userId++) {
+            for (long eventId = 0; eventId < EVENTS; eventId++) {
+                actions.add(action(userId, eventId));
+            }
+        }
+        return actions;
+    }
+
+    private static UserActionAvro action(long userId, long eventId) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeAvro.VIEW)
+                .setTimestamp(Instant.ofEpochMilli(1_000L))
+                .build();
+    }
+}
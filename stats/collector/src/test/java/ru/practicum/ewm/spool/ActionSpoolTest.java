@@ -0,0 +1,243 @@
+package ru.practicum.ewm.spool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.ewm.kafka.UserActionSender;
+import ru.practicum.grpc.stats.event.ActionTypeProto;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Журнал действий на временном каталоге: смена и удаление сегментов, повтор неудачной пересылки
+ * и продолжение с сохранённой позиции после перезапуска.
+ */
+class ActionSpoolTest {
+    private static final int RECORD_BYTES = Integer.BYTES + action(0).toByteArray().length;
+    private static final int SEGMENT_BYTES = 3 * RECORD_BYTES;
+    private static final long TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    private final List<UserActionProto> delivered = new CopyOnWriteArrayList<>();
+    private final List<List<UserActionProto>> attempts = new CopyOnWriteArrayList<>();
+    private final List<ActionSpool> spools = new ArrayList<>();
+    private SimpleMeterRegistry meterRegistry;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (ActionSpool spool : spools) {
+            spool.stop();
+        }
+    }
+
+    @Test
+    void relayedSegmentsAreDeleted() throws IOException {
+        ActionSpool spool = start(call -> true, 16, 2);
+        List<UserActionProto> actions = actions(0, 10);
+        actions.forEach(spool::append);
+
+        await(() -> delivered.size() == actions.size());
+        assertEquals(actions, delivered);
+        // из четырёх сегментов остаётся только тот, в который идёт запись
+        await(() -> segments().size() == 1);
+        assertEquals(List.of(4L), segments());
+        assertEquals(new Cursor(4L, RECORD_BYTES), cursor());
+    }
+
+    @Test
+    void fullSpoolRejectsRoll() {
+        ActionSpool spool = start(call -> false, 2, 100);
+        actions(0, 6).forEach(spool::append);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> spool.append(action(6)));
+        assertTrue(e.getMessage().startsWith("Журнал действий заполнен"));
+        assertEquals(1.0, meterRegistry.get("collector.spool.actions").tag("stage", "rejected")
+                .functionCounter().count());
+        assertEquals(List.of(1L, 2L), segments());
+    }
+
+    @Test
+    void oversizedActionIsRejected() {
+        ActionSpool spool = new ActionSpool(mock(UserActionSender.class), new SimpleMeterRegistry(), true,
+                dir.toString(), RECORD_BYTES, 2, 1, 10);
+        spool.start();
+        spools.add(spool);
+        UserActionProto large = action(0).toBuilder().setUserId(Long.MAX_VALUE).build();
+
+        assertThrows(IllegalArgumentException.class, () -> spool.append(large));
+        spool.append(action(0));
+    }
+
+    @Test
+    void failedDeliveryIsRetried() {
+        ActionSpool spool = start(call -> call >= 2, 16, 100);
+        List<UserActionProto> actions = actions(0, 3);
+        actions.forEach(spool::append);
+
+        await(() -> delivered.size() == actions.size());
+        assertEquals(actions, delivered);
+        assertTrue(attempts.size() >= 3);
+        // неудачные попытки отправляли то же начало журнала, что и успешная
+        assertEquals(attempts.get(0), attempts.get(1).subList(0, attempts.get(0).size()));
+    }
+
+    @Test
+    void restartContinuesFromCursor() throws InterruptedException {
+        ActionSpool first = start(call -> call == 0, 16, 2);
+        List<UserActionProto> actions = actions(0, 5);
+        actions.forEach(first::append);
+        await(() -> !delivered.isEmpty() && attempts.size() >= 2);
+        first.stop();
+        List<UserActionProto> deliveredBefore = List.copyOf(delivered);
+        delivered.clear();
+
+        ActionSpool second = start(call -> true, 16, 2);
+        await(() -> deliveredBefore.size() + delivered.size() == actions.size());
+        second.append(action(5));
+        await(() -> deliveredBefore.size() + delivered.size() == actions.size() + 1);
+
+        // подтверждённое до перезапуска не пересылается, запись продолжается за восстановленной границей
+        List<UserActionProto> all = new ArrayList<>(deliveredBefore);
+        all.addAll(delivered);
+        assertEquals(actions(0, 6), all);
+    }
+
+    @Test
+    void restartSkipsRecordsBeforeCursor() throws IOException, InterruptedException {
+        appendUndelivered(actions(0, 5));
+        writeCursor(new Cursor(1L, 2 * RECORD_BYTES));
+
+        start(call -> true, 16, 100);
+
+        await(() -> delivered.size() == 3);
+        assertEquals(actions(2, 5), delivered);
+    }
+
+    @Test
+    void cursorResetBeforeSegmentChangeReplaysOldSegment() throws IOException, InterruptedException {
+        appendUndelivered(actions(0, 5));
+        // падение в saveCursor при переходе на сегмент 2: позиция уже обнулена, сегмент ещё старый
+        writeCursor(new Cursor(1L, 0));
+
+        start(call -> true, 16, 100);
+
+        await(() -> delivered.size() == 5);
+        assertEquals(actions(0, 5), delivered);
+    }
+
+    /**
+     * Пишет действия в журнал, который не может их переслать, и останавливает его.
+     */
+    private void appendUndelivered(List<UserActionProto> actions) throws InterruptedException {
+        ActionSpool spool = start(call -> false, 16, 100);
+        actions.forEach(spool::append);
+        spool.stop();
+        assertEquals(List.of(1L, 2L), segments());
+    }
+
+    private ActionSpool start(IntPredicate succeeds, int maxSegments, int relayBatch) {
+        AtomicInteger calls = new AtomicInteger();
+        UserActionSender sender = mock(UserActionSender.class);
+        doAnswer(invocation -> {
+            List<UserActionProto> batch = List.copyOf(invocation.getArgument(0));
+            Callback callback = invocation.getArgument(1);
+            attempts.add(batch);
+            if (succeeds.test(calls.getAndIncrement())) {
+                delivered.addAll(batch);
+                callback.onCompletion(null, null);
+            } else {
+                callback.onCompletion(null, new TimeoutException("брокер недоступен"));
+            }
+            return null;
+        }).when(sender).sendAll(any(), any());
+        meterRegistry = new SimpleMeterRegistry();
+        ActionSpool spool = new ActionSpool(sender, meterRegistry, true, dir.toString(), SEGMENT_BYTES,
+                maxSegments, relayBatch, 10);
+        spool.start();
+        spools.add(spool);
+        return spool;
+    }
+
+    private List<Long> segments() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("segment-"))
+                    .map(name -> Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length())))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Cursor cursor() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(dir.resolve("cursor")));
+        return new Cursor(buffer.getLong(), buffer.getInt());
+    }
+
+    private void writeCursor(Cursor cursor) throws IOException {
+        Files.write(dir.resolve("cursor"), ByteBuffer.allocate(Long.BYTES + Integer.BYTES)
+                .putLong(cursor.segmentId())
+                .putInt(cursor.position())
+                .array());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Условие не выполнено за " + TIMEOUT_MS + " мс");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+
+    private static List<UserActionProto> actions(int from, int to) {
+        List<UserActionProto> actions = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            actions.add(action(i));
+        }
+        return actions;
+    }
+
+    private static UserActionProto action(int i) {
+        return UserActionProto.newBuilder()
+                .setUserId(10 + i)
+                .setEventId(100 + i)
+                .setActionType(ActionTypeProto.ACTION_VIEW)
+                .build();
+    }
+
+    private record Cursor(long segmentId, int position) {
+    }
+}
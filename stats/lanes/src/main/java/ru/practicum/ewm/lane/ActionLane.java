@@ -0,0 +1,20 @@
+package ru.practicum.ewm.lane;
+
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.grpc.stats.event.ActionTypeProto;
+
+/**
+ * Полоса топика действий: массовые просмотры или редкие и более весомые регистрации и лайки.
+ */
+public enum ActionLane {
+    BULK,
+    PRIORITY;
+
+    public static ActionLane of(ActionTypeAvro actionType) {
+        return actionType == ActionTypeAvro.VIEW ? BULK : PRIORITY;
+    }
+
+    public static ActionLane of(ActionTypeProto actionType) {
+        return actionType == ActionTypeProto.ACTION_VIEW ? BULK : PRIORITY;
+    }
+}
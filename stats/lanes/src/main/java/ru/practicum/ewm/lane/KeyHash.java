@@ -0,0 +1,31 @@
+package ru.practicum.ewm.lane;
+
+/**
+ * Хеш идентификаторов, общий для модулей: коллектор выбирает по нему партицию действия, а шардированный
+ * агрегатор перекладывает действия и распределяет пары. Если хеш разойдётся, агрегатор с
+ * {@code source-partitioned-by-user} будет читать действия пользователя не из той партиции.
+ */
+public final class KeyHash {
+
+    private KeyHash() {
+    }
+
+    public static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h ^= h >>> 16;
+        return (int) h;
+    }
+
+    public static int mix(long first, long second) {
+        return mix(first * 31 + mix(second));
+    }
+
+    public static int partitionOf(long key, int partitions) {
+        return Math.floorMod(mix(key), partitions);
+    }
+
+    public static int partitionOf(long first, long second, int partitions) {
+        return Math.floorMod(mix(first, second), partitions);
+    }
+}
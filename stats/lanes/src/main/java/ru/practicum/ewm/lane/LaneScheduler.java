@@ -0,0 +1,101 @@
+package ru.practicum.ewm.lane;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Чтение двух полос действий одним консьюмером с приоритетом полосы {@link ActionLane#PRIORITY}.
+ * <ul>
+ *     <li>Записи выборки обрабатываются начиная с приоритетной полосы.</li>
+ *     <li>Пока приоритетная полоса приносит записи, основная ставится на паузу не более чем на {@code weight}
+ *     выборок подряд, после чего читается одну выборку: под нагрузкой на неё приходится не меньше
+ *     1/(weight + 1) выборок, без нагрузки пауз нет.</li>
+ * </ul>
+ * Без приоритетного топика планировщик выключен и читает только основной топик.
+ */
+public class LaneScheduler {
+    private static final Duration PAUSED_POLL_TIMEOUT = Duration.ofMillis(50);
+
+    private final String bulkTopic;
+    private final String priorityTopic;
+    private final int weight;
+    private int priorityStreak;
+    private boolean bulkPaused;
+
+    public LaneScheduler(String bulkTopic, String priorityTopic, int weight) {
+        this.bulkTopic = bulkTopic;
+        this.priorityTopic = priorityTopic == null || priorityTopic.isBlank() ? null : priorityTopic;
+        this.weight = Math.max(0, weight);
+    }
+
+    public boolean isEnabled() {
+        return priorityTopic != null;
+    }
+
+    public List<String> topics() {
+        return isEnabled() ? List.of(priorityTopic, bulkTopic) : List.of(bulkTopic);
+    }
+
+    /**
+     * Пока основная полоса на паузе, выборка не ждёт дольше короткого интервала,
+     * чтобы основная полоса не простаивала, когда приоритетная опустела.
+     */
+    public Duration pollTimeout(Duration timeout) {
+        return bulkPaused && timeout.compareTo(PAUSED_POLL_TIMEOUT) > 0 ? PAUSED_POLL_TIMEOUT : timeout;
+    }
+
+    public void afterPoll(Consumer<?, ?> consumer, ConsumerRecords<?, ?> records) {
+        if (!isEnabled()) {
+            return;
+        }
+        boolean priorityBusy = false;
+        for (TopicPartition partition : records.partitions()) {
+            if (partition.topic().equals(priorityTopic)) {
+                priorityBusy = true;
+                break;
+            }
+        }
+        if (priorityBusy && priorityStreak < weight) {
+            priorityStreak++;
+            if (!bulkPaused) {
+                consumer.pause(bulkPartitions(consumer.assignment()));
+                bulkPaused = true;
+            }
+        } else {
+            priorityStreak = 0;
+            if (bulkPaused) {
+                consumer.resume(bulkPartitions(consumer.paused()));
+                bulkPaused = false;
+            }
+        }
+    }
+
+    /**
+     * Записи выборки: сначала приоритетной полосы, затем основной.
+     */
+    public <K, V> Iterable<ConsumerRecord<K, V>> ordered(ConsumerRecords<K, V> records) {
+        if (!isEnabled()) {
+            return records;
+        }
+        List<ConsumerRecord<K, V>> ordered = new ArrayList<>(records.count());
+        records.records(priorityTopic).forEach(ordered::add);
+        records.records(bulkTopic).forEach(ordered::add);
+        return ordered;
+    }
+
+    private List<TopicPartition> bulkPartitions(Iterable<TopicPartition> partitions) {
+        List<TopicPartition> bulk = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            if (partition.topic().equals(bulkTopic)) {
+                bulk.add(partition);
+            }
+        }
+        return bulk;
+    }
+}
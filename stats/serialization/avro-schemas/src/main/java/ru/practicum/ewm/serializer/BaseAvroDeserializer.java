@@ -6,12 +6,34 @@ import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Десериализатор записей Avro с настраиваемым переиспользованием объектов ({@value #REUSE_CONFIG}):
+ * <ul>
+ *     <li>{@code NONE} — на каждое сообщение создаются новые декодер и запись;</li>
+ *     <li>{@code DECODER} — декодер переиспользуется, записи новые;</li>
+ *     <li>{@code RECORDS} — переиспользуются и декодер, и записи из кольца размером {@code max.poll.records}.</li>
+ * </ul>
+ * В режиме {@code RECORDS} запись действительна только до следующего {@code poll()} консьюмера:
+ * следующий poll перезапишет её содержимое. Вызывающий, которому запись нужна дольше,
+ * обязан скопировать нужные поля до следующего poll.
+ */
 public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deserializer<T> {
+    public static final String REUSE_CONFIG = "avro.deserializer.reuse";
+    private static final int DEFAULT_MAX_POLL_RECORDS = 500;
+
     private final DecoderFactory decoderFactory;
     private final DatumReader<T> reader;
+    private Reuse reuse = Reuse.NONE;
+    private BinaryDecoder decoder;
+    private Object[] records;
+    private int nextRecord;
 
     public BaseAvroDeserializer(Schema schema) {
         this(DecoderFactory.get(), schema);
@@ -23,15 +45,45 @@ public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deser
     }
 
     @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object mode = configs.get(REUSE_CONFIG);
+        if (mode != null && !mode.toString().isBlank()) {
+            reuse = Reuse.valueOf(mode.toString().trim().toUpperCase(Locale.ROOT));
+        }
+        if (reuse == Reuse.RECORDS) {
+            Object maxPollRecords = configs.get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG);
+            records = new Object[maxPollRecords == null
+                    ? DEFAULT_MAX_POLL_RECORDS
+                    : Integer.parseInt(maxPollRecords.toString().trim())];
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
     public T deserialize(String topic, byte[] data) {
         try {
-            if (data != null) {
-                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, null);
-                return this.reader.read(null, decoder);
+            if (data == null) {
+                return null;
+            }
+            if (reuse == Reuse.NONE) {
+                return reader.read(null, decoderFactory.binaryDecoder(data, null));
+            }
+            decoder = decoderFactory.binaryDecoder(data, decoder);
+            if (reuse == Reuse.DECODER) {
+                return reader.read(null, decoder);
             }
-            return null;
+            T record = reader.read((T) records[nextRecord], decoder);
+            records[nextRecord] = record;
+            nextRecord = (nextRecord + 1) % records.length;
+            return record;
         } catch (Exception e) {
             throw new SerializationException("Ошибка десериализации данных из топика [" + topic + "]", e);
         }
     }
+
+    public enum Reuse {
+        NONE,
+        DECODER,
+        RECORDS
+    }
 }
@@ -0,0 +1,9 @@
+package ru.practicum.ewm.serializer;
+
+import ru.practicum.ewm.stats.avro.EventSimilarityBatchAvro;
+
+public class EventSimilarityBatchDeserializer extends BaseAvroDeserializer<EventSimilarityBatchAvro> {
+    public EventSimilarityBatchDeserializer() {
+        super(EventSimilarityBatchAvro.getClassSchema());
+    }
+}
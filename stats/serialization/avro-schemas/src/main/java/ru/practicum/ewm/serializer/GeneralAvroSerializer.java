@@ -1,5 +1,6 @@
 package ru.practicum.ewm.serializer;
 
+import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
@@ -10,22 +11,55 @@ import org.apache.kafka.common.serialization.Serializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Сериализует записи Avro без лишних аллокаций: writer создаётся один раз на схему,
+ * а буфер и энкодер принадлежат потоку и переиспользуются между вызовами.
+ * Поэтому один экземпляр можно безопасно вызывать из нескольких потоков продюсера.
+ */
 public class GeneralAvroSerializer implements Serializer<SpecificRecordBase> {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
     private final EncoderFactory encoderFactory = EncoderFactory.get();
-    private BinaryEncoder encoder;
+    private final Map<Schema, DatumWriter<SpecificRecordBase>> writers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
 
     public byte[] serialize(String topic, SpecificRecordBase data) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+        Buffer buffer = buffers.get();
+        try {
+            buffer.reset();
             if (data != null) {
-                DatumWriter<SpecificRecordBase> writer = new SpecificDatumWriter<>(data.getSchema());
-                encoder = encoderFactory.binaryEncoder(out, encoder);
-                writer.write(data, encoder);
-                encoder.flush();
+                DatumWriter<SpecificRecordBase> writer = writers.computeIfAbsent(data.getSchema(),
+                        schema -> new SpecificDatumWriter<>(schema));
+                buffer.encoder = encoderFactory.binaryEncoder(buffer, buffer.encoder);
+                writer.write(data, buffer.encoder);
+                buffer.encoder.flush();
             }
-            return out.toByteArray();
+            return buffer.toByteArray();
         } catch (IOException ex) {
             throw new SerializationException("Ошибка сериализации данных для топика [" + topic + "]", ex);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                buffers.remove();
+            }
+        }
+    }
+
+    /**
+     * Буфер потока вместе с его энкодером; слишком выросший буфер не удерживается.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private BinaryEncoder encoder;
+
+        private Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private int capacity() {
+            return buf.length;
         }
     }
 }
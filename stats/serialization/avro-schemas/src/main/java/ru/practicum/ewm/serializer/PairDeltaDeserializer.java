@@ -0,0 +1,9 @@
+package ru.practicum.ewm.serializer;
+
+import ru.practicum.ewm.stats.avro.PairDeltaAvro;
+
+public class PairDeltaDeserializer extends BaseAvroDeserializer<PairDeltaAvro> {
+    public PairDeltaDeserializer() {
+        super(PairDeltaAvro.getClassSchema());
+    }
+}
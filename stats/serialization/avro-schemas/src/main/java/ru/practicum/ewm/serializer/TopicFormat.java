@@ -0,0 +1,58 @@
+package ru.practicum.ewm.serializer;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+import java.util.function.Consumer;
+
+/**
+ * Формат записей топика: одна запись Avro на сообщение, конверт с пачкой записей
+ * или исходное сообщение protobuf без преобразования (только для действий пользователей).
+ * Продюсеры и консьюмеры одного топика должны быть настроены на один формат.
+ */
+public enum TopicFormat {
+    SINGLE,
+    BATCH,
+    PROTO;
+
+    public String userActionDeserializer() {
+        return switch (this) {
+            case SINGLE -> UserActionDeserializer.class.getName();
+            case BATCH -> UserActionBatchDeserializer.class.getName();
+            case PROTO -> UserActionProtoDeserializer.class.getName();
+        };
+    }
+
+    public String eventSimilarityDeserializer() {
+        return switch (this) {
+            case SINGLE -> EventSimilarityDeserializer.class.getName();
+            case BATCH -> EventSimilarityBatchDeserializer.class.getName();
+            case PROTO -> throw new IllegalStateException("Формат PROTO для сходств не поддерживается");
+        };
+    }
+
+    /**
+     * Передаёт действия из значения сообщения: самого действия или конверта с пачкой.
+     */
+    public static void forEachAction(SpecificRecordBase value, Consumer<UserActionAvro> action) {
+        if (value instanceof UserActionBatchAvro batch) {
+            batch.getActions().forEach(action);
+        } else if (value != null) {
+            action.accept((UserActionAvro) value);
+        }
+    }
+
+    /**
+     * Передаёт сходства из значения сообщения: самого сходства или конверта с пачкой.
+     */
+    public static void forEachSimilarity(SpecificRecordBase value, Consumer<EventSimilarityAvro> action) {
+        if (value instanceof EventSimilarityBatchAvro batch) {
+            batch.getSimilarities().forEach(action);
+        } else if (value != null) {
+            action.accept((EventSimilarityAvro) value);
+        }
+    }
+}
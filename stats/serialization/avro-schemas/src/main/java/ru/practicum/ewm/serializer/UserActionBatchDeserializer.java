@@ -0,0 +1,9 @@
+package ru.practicum.ewm.serializer;
+
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+public class UserActionBatchDeserializer extends BaseAvroDeserializer<UserActionBatchAvro> {
+    public UserActionBatchDeserializer() {
+        super(UserActionBatchAvro.getClassSchema());
+    }
+}
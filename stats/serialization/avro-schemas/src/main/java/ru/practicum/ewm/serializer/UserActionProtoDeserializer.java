@@ -0,0 +1,44 @@
+package ru.practicum.ewm.serializer;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.grpc.stats.event.UserActionProto;
+
+import java.time.Instant;
+
+/**
+ * Читает действия, которые коллектор записал в топик как есть, в сериализованном виде {@link UserActionProto},
+ * и отдаёт их консьюмеру в виде {@link UserActionAvro}, поэтому обработчики от формата топика не зависят.
+ */
+public class UserActionProtoDeserializer implements Deserializer<UserActionAvro> {
+
+    @Override
+    public UserActionAvro deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            UserActionProto action = UserActionProto.parseFrom(data);
+            return UserActionAvro.newBuilder()
+                    .setUserId(action.getUserId())
+                    .setEventId(action.getEventId())
+                    .setActionType(toActionType(action))
+                    .setTimestamp(Instant.ofEpochSecond(action.getTimestamp().getSeconds(),
+                            action.getTimestamp().getNanos()))
+                    .build();
+        } catch (Exception e) {
+            throw new SerializationException("Ошибка десериализации данных из топика [" + topic + "]", e);
+        }
+    }
+
+    private static ActionTypeAvro toActionType(UserActionProto action) {
+        return switch (action.getActionType()) {
+            case ACTION_VIEW -> ActionTypeAvro.VIEW;
+            case ACTION_REGISTER -> ActionTypeAvro.REGISTER;
+            case ACTION_LIKE -> ActionTypeAvro.LIKE;
+            default -> throw new IllegalArgumentException("Неизвестный тип действия " + action.getActionTypeValue());
+        };
+    }
+}
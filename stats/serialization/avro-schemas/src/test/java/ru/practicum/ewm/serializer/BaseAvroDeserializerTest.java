@@ -0,0 +1,214 @@
+package ru.practicum.ewm.serializer;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Десериализация в каждом режиме {@link BaseAvroDeserializer.Reuse}: содержимое записей совпадает
+ * с отправленным, а в режиме {@code RECORDS} запись не перезаписывается раньше, чем будут прочитаны
+ * ещё {@code max.poll.records} записей. Память на запись в каждом режиме считается счётчиком аллокаций
+ * потока для действий и сходств; скорость режимов сравнивается только по запросу: {@code -Dbenchmarks=true}.
+ */
+class BaseAvroDeserializerTest {
+    private static final String TOPIC = "stats.user-actions.v1";
+    private static final int MAX_POLL_RECORDS = 3;
+    private static final int BATCH_MAX_POLL_RECORDS = 500;
+    private static final int RECORDS = 10_000;
+    private static final int ROUNDS = 5;
+
+    private final GeneralAvroSerializer serializer = new GeneralAvroSerializer();
+    /**
+     * Последняя прочитанная запись: не даёт JIT убрать выделение записей, которые больше никуда не уходят.
+     */
+    private Object last;
+
+    @ParameterizedTest
+    @EnumSource(BaseAvroDeserializer.Reuse.class)
+    void roundTrip(BaseAvroDeserializer.Reuse reuse) {
+        UserActionDeserializer deserializer = deserializer(reuse);
+
+        for (long i = 0; i < 2 * MAX_POLL_RECORDS; i++) {
+            UserActionAvro action = action(i);
+            assertEquals(action, deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action)));
+        }
+        assertNull(deserializer.deserialize(TOPIC, null));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BaseAvroDeserializer.Reuse.class, names = {"NONE", "DECODER"})
+    void recordsAreNotReused(BaseAvroDeserializer.Reuse reuse) {
+        UserActionDeserializer deserializer = deserializer(reuse);
+
+        UserActionAvro first = deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action(0)));
+        UserActionAvro second = deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action(1)));
+
+        assertNotSame(first, second);
+        assertEquals(action(0), first);
+    }
+
+    @Test
+    void recordSurvivesUntilMaxPollRecordsMoreAreRead() {
+        UserActionDeserializer deserializer = deserializer(BaseAvroDeserializer.Reuse.RECORDS);
+
+        List<UserActionAvro> poll = new ArrayList<>();
+        for (long i = 0; i < MAX_POLL_RECORDS; i++) {
+            poll.add(deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action(i))));
+        }
+        for (int i = 0; i < MAX_POLL_RECORDS; i++) {
+            assertEquals(action(i), poll.get(i));
+            for (int j = 0; j < i; j++) {
+                assertNotSame(poll.get(j), poll.get(i));
+            }
+        }
+
+        // следующий poll: каждая новая запись занимает место записи, прочитанной max.poll.records назад
+        for (int i = 0; i < MAX_POLL_RECORDS; i++) {
+            UserActionAvro next = deserializer.deserialize(TOPIC,
+                    serializer.serialize(TOPIC, action(MAX_POLL_RECORDS + i)));
+            assertSame(poll.get(i), next);
+            assertEquals(action(MAX_POLL_RECORDS + i), next);
+            for (int j = i + 1; j < MAX_POLL_RECORDS; j++) {
+                assertEquals(action(j), poll.get(j));
+            }
+        }
+    }
+
+    @Test
+    void corruptedDataIsReported() {
+        UserActionDeserializer deserializer = deserializer(BaseAvroDeserializer.Reuse.RECORDS);
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize(TOPIC, new byte[]{2}));
+        UserActionAvro action = action(1);
+        assertEquals(action, deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action)));
+    }
+
+    @Test
+    void actionAllocationShrinksWithReuse() {
+        assertAllocationShrinksWithReuse(UserActionDeserializer::new, payloads(BaseAvroDeserializerTest::action));
+    }
+
+    @Test
+    void similarityAllocationShrinksWithReuse() {
+        assertAllocationShrinksWithReuse(EventSimilarityDeserializer::new,
+                payloads(BaseAvroDeserializerTest::similarity));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void reuseModesThroughput(TestReporter reporter) {
+        byte[][] actions = payloads(BaseAvroDeserializerTest::action);
+        byte[][] similarities = payloads(BaseAvroDeserializerTest::similarity);
+        for (BaseAvroDeserializer.Reuse reuse : BaseAvroDeserializer.Reuse.values()) {
+            long action = Long.MAX_VALUE;
+            long similarity = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                action = Math.min(action, nanos(configure(new UserActionDeserializer(), reuse,
+                        BATCH_MAX_POLL_RECORDS), actions));
+                similarity = Math.min(similarity, nanos(configure(new EventSimilarityDeserializer(), reuse,
+                        BATCH_MAX_POLL_RECORDS), similarities));
+            }
+            reporter.publishEntry(reuse.name() + ", нс на запись",
+                    "действие " + action / RECORDS + ", сходство " + similarity / RECORDS);
+        }
+    }
+
+    /**
+     * Каждый следующий режим выделяет на запись меньше предыдущего: {@code DECODER} экономит декодер,
+     * {@code RECORDS} — ещё и саму запись.
+     */
+    private void assertAllocationShrinksWithReuse(Supplier<BaseAvroDeserializer<?>> factory, byte[][] payloads) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        Map<BaseAvroDeserializer.Reuse, Long> allocated = new EnumMap<>(BaseAvroDeserializer.Reuse.class);
+        for (BaseAvroDeserializer.Reuse reuse : BaseAvroDeserializer.Reuse.values()) {
+            BaseAvroDeserializer<?> deserializer = configure(factory.get(), reuse, BATCH_MAX_POLL_RECORDS);
+            deserializeAll(deserializer, payloads);
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            deserializeAll(deserializer, payloads);
+            allocated.put(reuse, (threads.getCurrentThreadAllocatedBytes() - before) / payloads.length);
+        }
+
+        assertTrue(allocated.get(BaseAvroDeserializer.Reuse.DECODER) < allocated.get(BaseAvroDeserializer.Reuse.NONE),
+                "Байт на запись: " + allocated);
+        assertTrue(allocated.get(BaseAvroDeserializer.Reuse.RECORDS)
+                < allocated.get(BaseAvroDeserializer.Reuse.DECODER), "Байт на запись: " + allocated);
+    }
+
+    private long nanos(BaseAvroDeserializer<?> deserializer, byte[][] payloads) {
+        long started = System.nanoTime();
+        deserializeAll(deserializer, payloads);
+        return System.nanoTime() - started;
+    }
+
+    private void deserializeAll(BaseAvroDeserializer<?> deserializer, byte[][] payloads) {
+        for (byte[] payload : payloads) {
+            last = deserializer.deserialize(TOPIC, payload);
+        }
+    }
+
+    private byte[][] payloads(LongFunction<SpecificRecordBase> record) {
+        byte[][] payloads = new byte[RECORDS][];
+        for (int i = 0; i < RECORDS; i++) {
+            payloads[i] = serializer.serialize(TOPIC, record.apply(i));
+        }
+        return payloads;
+    }
+
+    private static UserActionDeserializer deserializer(BaseAvroDeserializer.Reuse reuse) {
+        return configure(new UserActionDeserializer(), reuse, MAX_POLL_RECORDS);
+    }
+
+    private static <D extends BaseAvroDeserializer<?>> D configure(D deserializer, BaseAvroDeserializer.Reuse reuse,
+                                                                  int maxPollRecords) {
+        deserializer.configure(Map.of(
+                BaseAvroDeserializer.REUSE_CONFIG, reuse.name(),
+                ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords), false);
+        return deserializer;
+    }
+
+    private static UserActionAvro action(long i) {
+        return UserActionAvro.newBuilder()
+                .setUserId(i)
+                .setEventId(1_000L + i)
+                .setActionType(ActionTypeAvro.values()[(int) (i % ActionTypeAvro.values().length)])
+                .setTimestamp(Instant.ofEpochMilli(10_000L + i))
+                .build();
+    }
+
+    private static EventSimilarityAvro similarity(long i) {
+        return EventSimilarityAvro.newBuilder()
+                .setEventA(i)
+                .setEventB(1_000L + i)
+                .setScore(1.0 / (i + 1))
+                .setTimestamp(Instant.ofEpochMilli(10_000L + i))
+                .build();
+    }
+}
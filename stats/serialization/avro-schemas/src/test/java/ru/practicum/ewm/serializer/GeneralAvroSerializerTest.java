@@ -0,0 +1,155 @@
+package ru.practicum.ewm.serializer;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Буфер и энкодер потока переиспользуются, поэтому каждый вызов должен возвращать собственный массив
+ * ровно с байтами своей записи, в том числе после записи большей или другой схемы. Память на вызов
+ * считается счётчиком аллокаций потока и сравнивается с сериализацией через новые буфер, энкодер и writer.
+ */
+class GeneralAvroSerializerTest {
+    private static final String TOPIC = "stats.user-actions.v1";
+    private static final int CALLS = 10_000;
+    /**
+     * Начальный размер буфера: столько выделил бы каждый вызов на один только новый буфер.
+     */
+    private static final long BUFFER_BYTES = 256;
+
+    private final GeneralAvroSerializer serializer = new GeneralAvroSerializer();
+
+    @Test
+    void roundTripOfDifferentSchemas() {
+        UserActionAvro action = action(1L, 2L);
+        EventSimilarityAvro similarity = EventSimilarityAvro.newBuilder()
+                .setEventA(2L)
+                .setEventB(3L)
+                .setScore(0.25)
+                .setTimestamp(Instant.ofEpochMilli(5_000L))
+                .build();
+
+        byte[] actionBytes = serializer.serialize(TOPIC, action);
+        byte[] similarityBytes = serializer.serialize(TOPIC, similarity);
+
+        assertNotSame(actionBytes, similarityBytes);
+        assertEquals(action, new UserActionDeserializer().deserialize(TOPIC, actionBytes));
+        assertEquals(similarity, new EventSimilarityDeserializer().deserialize(TOPIC, similarityBytes));
+    }
+
+    @Test
+    void shortRecordAfterLongOneHasNoTrailingBytes() {
+        List<UserActionAvro> actions = new ArrayList<>();
+        for (long i = 0; i < 1_000; i++) {
+            actions.add(action(i, Long.MAX_VALUE - i));
+        }
+        UserActionBatchAvro batch = new UserActionBatchAvro(actions);
+        UserActionAvro small = action(1L, 1L);
+
+        byte[] batchBytes = serializer.serialize(TOPIC, batch);
+        byte[] smallBytes = serializer.serialize(TOPIC, small);
+
+        assertEquals(batch, new UserActionBatchDeserializer().deserialize(TOPIC, batchBytes));
+        assertEquals(small, new UserActionDeserializer().deserialize(TOPIC, smallBytes));
+        assertEquals(new GeneralAvroSerializer().serialize(TOPIC, small).length, smallBytes.length);
+    }
+
+    @Test
+    void nullIsSerializedToEmptyArray() {
+        serializer.serialize(TOPIC, action(1L, 2L));
+
+        assertEquals(0, serializer.serialize(TOPIC, null).length);
+    }
+
+    @Test
+    void threadsDoNotShareBuffers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                long userId = thread;
+                results.add(executor.submit(() -> {
+                    UserActionDeserializer deserializer = new UserActionDeserializer();
+                    for (long eventId = 0; eventId < 10_000; eventId++) {
+                        UserActionAvro action = action(userId, eventId);
+                        assertEquals(action, deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reusedBufferAllocatesLessThanFreshOne() throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        UserActionAvro action = action(1L, 2L);
+        for (int i = 0; i < CALLS; i++) {
+            serializer.serialize(TOPIC, action);
+            serializeWithFreshBuffer(action);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            serializer.serialize(TOPIC, action);
+        }
+        long reused = (threads.getCurrentThreadAllocatedBytes() - before) / CALLS;
+        before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            serializeWithFreshBuffer(action);
+        }
+        long fresh = (threads.getCurrentThreadAllocatedBytes() - before) / CALLS;
+
+        // на вызов остаются только возвращаемый массив и упаковка полей при записи
+        assertTrue(reused < BUFFER_BYTES, "Выделено " + reused + " байт на запись");
+        assertTrue(reused * 4 < fresh, "С переиспользованием " + reused + " байт на запись, без него " + fresh);
+    }
+
+    /**
+     * Сериализация без переиспользования: буфер, энкодер и writer создаются на каждый вызов.
+     */
+    private static byte[] serializeWithFreshBuffer(SpecificRecordBase data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) BUFFER_BYTES);
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new SpecificDatumWriter<SpecificRecordBase>(data.getSchema()).write(data, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static UserActionAvro action(long userId, long eventId) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeAvro.LIKE)
+                .setTimestamp(Instant.ofEpochMilli(1_000L + eventId % 1_000))
+                .build();
+    }
+}
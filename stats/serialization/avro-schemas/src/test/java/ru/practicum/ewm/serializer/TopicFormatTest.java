@@ -0,0 +1,86 @@
+package ru.practicum.ewm.serializer;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.ewm.stats.avro.ActionTypeAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityAvro;
+import ru.practicum.ewm.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.ewm.stats.avro.UserActionAvro;
+import ru.practicum.ewm.stats.avro.UserActionBatchAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Консьюмер получает одни и те же записи в том же порядке, пришли они по одной или конвертом,
+ * в том числе после сериализации конверта.
+ */
+class TopicFormatTest {
+    private static final String TOPIC = "stats.user-actions.v1";
+
+    @Test
+    void forEachActionUnwrapsEnvelopeInOrder() {
+        List<UserActionAvro> actions = List.of(action(1L, 10L), action(2L, 10L), action(1L, 20L));
+        UserActionBatchAvro envelope = new UserActionBatchAvro(actions);
+        byte[] bytes = new GeneralAvroSerializer().serialize(TOPIC, envelope);
+
+        List<UserActionAvro> received = new ArrayList<>();
+        TopicFormat.forEachAction(new UserActionBatchDeserializer().deserialize(TOPIC, bytes), received::add);
+
+        assertEquals(actions, received);
+    }
+
+    @Test
+    void forEachActionPassesSingleAction() {
+        UserActionAvro action = action(1L, 10L);
+
+        List<UserActionAvro> received = new ArrayList<>();
+        TopicFormat.forEachAction(action, received::add);
+
+        assertEquals(List.of(action), received);
+    }
+
+    @Test
+    void emptyValuesPassNothing() {
+        List<Object> received = new ArrayList<>();
+        TopicFormat.forEachAction(null, received::add);
+        TopicFormat.forEachAction(new UserActionBatchAvro(List.of()), received::add);
+        TopicFormat.forEachSimilarity(null, received::add);
+        TopicFormat.forEachSimilarity(new EventSimilarityBatchAvro(List.of()), received::add);
+
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void forEachSimilarityUnwrapsEnvelope() {
+        EventSimilarityAvro first = similarity(1L, 2L, 0.5);
+        EventSimilarityAvro second = similarity(1L, 3L, 0.25);
+
+        List<EventSimilarityAvro> received = new ArrayList<>();
+        TopicFormat.forEachSimilarity(new EventSimilarityBatchAvro(List.of(first, second)), received::add);
+        TopicFormat.forEachSimilarity(first, received::add);
+
+        assertEquals(List.of(first, second, first), received);
+    }
+
+    private static UserActionAvro action(long userId, long eventId) {
+        return UserActionAvro.newBuilder()
+                .setUserId(userId)
+                .setEventId(eventId)
+                .setActionType(ActionTypeAvro.VIEW)
+                .setTimestamp(Instant.ofEpochMilli(1_000L))
+                .build();
+    }
+
+    private static EventSimilarityAvro similarity(long eventA, long eventB, double score) {
+        return EventSimilarityAvro.newBuilder()
+                .setEventA(eventA)
+                .setEventB(eventB)
+                .setScore(score)
+                .setTimestamp(Instant.ofEpochMilli(1_000L))
+                .build();
+    }
+}
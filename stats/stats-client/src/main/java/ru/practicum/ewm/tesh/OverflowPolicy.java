@@ -0,0 +1,11 @@
+package ru.practicum.ewm.tesh;
+
+/**
+ * Что делать с действием, когда очередь {@link StatsClient} заполнена.
+ */
+public enum OverflowPolicy {
+    /** Отбросить новое действие. */
+    DROP_NEWEST,
+    /** Вытеснить самое старое действие из очереди. */
+    DROP_OLDEST
+}
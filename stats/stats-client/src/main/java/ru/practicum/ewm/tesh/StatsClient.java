@@ -1,67 +1,251 @@
 package ru.practicum.ewm.tesh;
 
-import io.grpc.StatusRuntimeException;
+import io.grpc.Metadata;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.client.inject.GrpcClient;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import ru.practicum.grpc.stats.event.ActionTypeProto;
 import ru.practicum.grpc.stats.event.UserActionControllerGrpc;
 import ru.practicum.grpc.stats.event.UserActionProto;
+import ru.practicum.grpc.stats.event.UserActionsAckProto;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Отправляет действия пользователей в коллектор, не задерживая вызывающий поток: действие кладётся
+ * в очередь на {@code stats-client.queue-capacity} элементов, а фоновый поток пересылает её пачками
+ * до {@code batch-size} через потоковый вызов {@code CollectUserActions}.
+ * <ul>
+ *     <li>При заполненной очереди действует {@link OverflowPolicy} из {@code overflow-policy}.</li>
+ *     <li>Неудачная пачка повторяется до {@code max-attempts} раз с паузой {@code retry-backoff-ms},
+ *     затем отбрасывается; очередь в это время продолжает копиться.</li>
+ *     <li>Метрики: {@code stats.client.actions{result}}, {@code stats.client.queue.depth},
+ *     {@code stats.client.send.latency}.</li>
+ * </ul>
+ * Каждый вызов несёт заголовок {@code x-caller-id} с именем приложения — по нему коллектор
+ * применяет лимит на вызывающий сервис.
+ */
 @Slf4j
 @Component
 public class StatsClient {
+    private static final Metadata.Key<String> CALLER_KEY =
+            Metadata.Key.of("x-caller-id", Metadata.ASCII_STRING_MARSHALLER);
 
     @GrpcClient("collector")
-    private UserActionControllerGrpc.UserActionControllerBlockingStub userActionStub;
+    private UserActionControllerGrpc.UserActionControllerStub userActionStub;
+
+    private final BlockingQueue<UserActionProto> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final String caller;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long timeoutMs;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Timer sendLatency;
+    private volatile boolean running;
+    private Thread sender;
+
+    public StatsClient(MeterRegistry meterRegistry,
+                       @Value("${spring.application.name:}") String caller,
+                       @Value("${stats-client.queue-capacity:10000}") int queueCapacity,
+                       @Value("${stats-client.overflow-policy:DROP_NEWEST}") OverflowPolicy overflowPolicy,
+                       @Value("${stats-client.batch-size:500}") int batchSize,
+                       @Value("${stats-client.flush-interval-ms:100}") long flushIntervalMs,
+                       @Value("${stats-client.timeout-ms:5000}") long timeoutMs,
+                       @Value("${stats-client.max-attempts:3}") int maxAttempts,
+                       @Value("${stats-client.retry-backoff-ms:1000}") long retryBackoffMs) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.overflowPolicy = overflowPolicy;
+        this.caller = caller;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.timeoutMs = timeoutMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMs = retryBackoffMs;
+        registerCounter(meterRegistry, "sent", sent);
+        registerCounter(meterRegistry, "rejected", rejected);
+        registerCounter(meterRegistry, "dropped", dropped);
+        registerCounter(meterRegistry, "failed", failed);
+        Gauge.builder("stats.client.queue.depth", queue, BlockingQueue::size)
+                .description("Действия в очереди на отправку в коллектор")
+                .register(meterRegistry);
+        sendLatency = Timer.builder("stats.client.send.latency")
+                .description("Время отправки пачки действий в коллектор")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        sender = new Thread(this::runSender, "stats-client-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        sender.join(timeoutMs + flushIntervalMs);
+        if (!queue.isEmpty()) {
+            log.warn("Остановка клиента статистики: {} действий не отправлено", queue.size());
+        }
+    }
 
-    @Retryable(
-            retryFor = {StatusRuntimeException.class},
-            maxAttempts = 3,
-            backoff = @Backoff(delay = 3000)
-    )
     public void recordView(Long userId, Long eventId) {
-        sendAction(userId, eventId, ActionTypeProto.ACTION_VIEW);
-        log.info("Получен запрос просмотра");
+        enqueue(userId, eventId, ActionTypeProto.ACTION_VIEW);
     }
 
-    @Retryable(
-            retryFor = {StatusRuntimeException.class},
-            maxAttempts = 3,
-            backoff = @Backoff(delay = 3000)
-    )
     public void recordRegister(Long userId, Long eventId) {
-        sendAction(userId, eventId, ActionTypeProto.ACTION_REGISTER);
+        enqueue(userId, eventId, ActionTypeProto.ACTION_REGISTER);
     }
 
-    @Retryable(
-            retryFor = {StatusRuntimeException.class},
-            maxAttempts = 3,
-            backoff = @Backoff(delay = 3000)
-    )
     public void recordLike(Long userId, Long eventId) {
-        sendAction(userId, eventId, ActionTypeProto.ACTION_LIKE);
+        enqueue(userId, eventId, ActionTypeProto.ACTION_LIKE);
+    }
+
+    private void enqueue(Long userId, Long eventId, ActionTypeProto actionType) {
+        UserActionProto userAction = UserActionMapper.toProto(userId, eventId, actionType, Instant.now());
+        if (queue.offer(userAction)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            while (!queue.offer(userAction)) {
+                if (queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            return;
+        }
+        dropped.incrementAndGet();
+        log.debug("Очередь действий заполнена, действие отброшено: userId={}, eventId={}, actionType={}",
+                userId, eventId, actionType);
+    }
+
+    private void runSender() {
+        List<UserActionProto> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                UserActionProto first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            if (!batch.isEmpty()) {
+                sendWithRetries(batch);
+                batch.clear();
+            }
+        }
     }
 
-    private void sendAction(Long userId, Long eventId, ActionTypeProto actionType) {
+    private void sendWithRetries(List<UserActionProto> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long accepted = sendTimed(batch);
+                sent.addAndGet(accepted);
+                rejected.addAndGet(batch.size() - accepted);
+                log.debug("Отправлено в коллектор {} действий, принято {}", batch.size(), accepted);
+                return;
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                if (attempt >= maxAttempts || !running || Thread.currentThread().isInterrupted()) {
+                    failed.addAndGet(batch.size());
+                    log.error("Не удалось отправить {} действий пользователя после {} попыток: {}",
+                            batch.size(), attempt, e.getMessage());
+                    return;
+                }
+                log.warn("Не удалось отправить {} действий пользователя, повтор через {} мс: {}",
+                        batch.size(), retryBackoffMs, e.getMessage());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(retryBackoffMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    failed.addAndGet(batch.size());
+                    return;
+                }
+            }
+        }
+    }
+
+    private long sendTimed(List<UserActionProto> batch) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return send(batch);
+        } finally {
+            sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long send(List<UserActionProto> batch) throws Exception {
+        CompletableFuture<Long> ack = new CompletableFuture<>();
+        StreamObserver<UserActionProto> requests = stub().collectUserActions(new StreamObserver<>() {
+            @Override
+            public void onNext(UserActionsAckProto value) {
+                ack.complete(value.getAccepted());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                ack.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                ack.complete(0L);
+            }
+        });
         try {
-            UserActionProto userAction = UserActionMapper.toProto(userId, eventId, actionType, Instant.now());
-            userActionStub.collectUserAction(userAction);
-            log.info("Действие пользователя успешно отправлено: userId={}, eventId={}, actionType={}",
-                    userId, eventId, actionType);
-        } catch (StatusRuntimeException e) {
-            log.error("Не удалось отправить действие пользователя. Статус: {}, сообщение: {}" +
-                            "TEST: {}, {}, {}",
-                    e.getStatus(), e.getMessage(),userId, eventId, actionType, e);
+            batch.forEach(requests::onNext);
+            requests.onCompleted();
+        } catch (RuntimeException e) {
+            requests.onError(e);
             throw e;
-        } catch (Exception e) {
-            log.error("Не удалось отправить действие пользователя. Исключение: {}, сообщение: {}",
-                    e.getClass().getName(), e.getMessage(), e);
-            throw new RuntimeException("Ошибка при отправке действия пользователя", e);
         }
+        return ack.get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private UserActionControllerGrpc.UserActionControllerStub stub() {
+        UserActionControllerGrpc.UserActionControllerStub stub =
+                userActionStub.withDeadlineAfter(timeoutMs, TimeUnit.MILLISECONDS);
+        if (caller.isBlank()) {
+            return stub;
+        }
+        Metadata headers = new Metadata();
+        headers.put(CALLER_KEY, caller);
+        return stub.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private static void registerCounter(MeterRegistry meterRegistry, String result, AtomicLong counter) {
+        FunctionCounter.builder("stats.client.actions", counter, AtomicLong::get)
+                .description("Действия пользователей, переданные клиенту статистики")
+                .tag("result", result)
+                .register(meterRegistry);
     }
 }